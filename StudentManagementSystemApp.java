@@ -3,7 +3,8 @@
  * Name: Guilherme Duarte da Silva
  * ID: 25662
  * 
- * Description: This is the main class of the application. It calls the GUI class.
+ * Description: This is the main class of the application. It calls the GUI class, or
+ *              runs a command line command when arguments are given.
  *              It is also responsible for the execution of the application.
 */
 
@@ -12,6 +13,15 @@ import javax.swing.*;
 public class StudentManagementSystemApp {
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            // Command line mode never touches the GUI, so it runs on servers without a display
+            System.setProperty("java.awt.headless", "true");
+            System.exit(new StudentManagementSystemCli().run(args));
+        }
+        startGUI();
+    }
+
+    private static void startGUI() {
         SwingUtilities.invokeLater(StudentManagementSystemGUI::new);
     }
     
@@ -16,7 +16,15 @@ import java.awt.*;
 import java.util.*;
 import javax.swing.*;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.swing.table.DefaultTableCellRenderer;
 
 // Color the table rows based on the status of the module
@@ -92,13 +100,18 @@ class Student implements Serializable {
     private String name;
     private String id;
     private String email;
-    private Set<Module> enrolledModules;
+    private int key = -1;
+
+    // The StudentManagementSystem the student was added to, the code of the ID in its student index, and
+    // the progress it last worked out for the student, null until it is asked for again after a change
+    private transient StudentManagementSystem owner;
+    private transient int idCode = SymbolTable.NONE;
+    private transient volatile StudentProgress progress;
 
     public Student(String name, String id, String email) {
         this.name = name;
         this.id = id;
         this.email = email;
-        this.enrolledModules = new HashSet<>();
     }
 
     // Getters and setters
@@ -118,6 +131,16 @@ class Student implements Serializable {
         this.id = id;
     }
 
+    // Code of the ID in the owner's student index, equal codes mean equal IDs. Set by the owner when the
+    // student is added or its ID is changed through updateStudent.
+    int getIdCode() {
+        return idCode;
+    }
+
+    void setIdCode(int idCode) {
+        this.idCode = idCode;
+    }
+
     public String getEmail() {
         return email;
     }
@@ -126,12 +149,19 @@ class Student implements Serializable {
         this.email = email;
     }
 
+    // Copy of the modules the student is enrolled in, the enrollments are kept by the StudentManagementSystem
     public Set<Module> getEnrolledModules() {
-        return enrolledModules;
+        StudentManagementSystem current = owner;
+        return current != null ? current.getEnrolledModules(this) : Collections.emptySet();
+    }
+
+    // Key given by the StudentManagementSystem when added, it does not change with the ID
+    int getKey() {
+        return key;
     }
 
-    public void setEnrolledModules(Set<Module> enrolledModules) {
-        this.enrolledModules = enrolledModules;
+    void setKey(int key) {
+        this.key = key;
     }
 
     public Object getValue() {
@@ -140,35 +170,136 @@ class Student implements Serializable {
 
     @Override
     public String toString() {
-        return "Name: " + name + ", ID: " + id + ", Email: " + email;
+        return "Name: " + name + ", ID: " + getId() + ", Email: " + email;
     }
 
     public Set<Module> getEnrolledStudents() {
         return null;
     }
 
+    // Modules completed and passed, from the grades. Cached, so it is only worked out again after the
+    // student's grades or enrollments change.
+    public StudentProgress getProgress() {
+        StudentManagementSystem current = owner;
+        return current != null ? current.getProgress(this) : StudentProgress.EMPTY;
+    }
+
+    void setOwner(StudentManagementSystem owner) {
+        this.owner = owner;
+    }
+
+    StudentProgress getCachedProgress() {
+        return progress;
+    }
+
+    void setCachedProgress(StudentProgress progress) {
+        this.progress = progress;
+    }
+
     public List<Module> getCompletedModules() {
-        return enrolledModules.stream()
-                .filter(Module::isCompleted)
-                .collect(Collectors.toList());
+        return getProgress().getCompletedModules();
     }
 
+    // The ID is looked up in the owner's module index, the module is then checked by key
     public boolean hasCompletedModule(String moduleId) {
-        return getCompletedModules().stream()
-                .anyMatch(module -> module.getId().equals(moduleId));
+        Module module = moduleWithId(moduleId);
+        return module != null && getProgress().hasCompleted(module);
     }
 
     public boolean hasPassedModule(String moduleId) {
-        return enrolledModules.stream()
-                .anyMatch(module -> module.getId().equalsIgnoreCase(moduleId) && module.isCompleted() && module.isPassed());
+        Module module = moduleWithId(moduleId);
+        return module != null && getProgress().hasPassed(module);
+    }
+
+    private Module moduleWithId(String moduleId) {
+        StudentManagementSystem current = owner;
+        return current != null ? current.getModuleById(moduleId).orElse(null) : null;
     }
-    
+
     public List<Module> getCompletedAndPassedModules() {
-        return enrolledModules.stream()
-                .filter(module -> module.isCompleted() && module.isPassed())
-                .collect(Collectors.toList());
+        return getProgress().getPassedModules();
+    }
+}
+
+// Set of semesters SEM1 to SEM31 as a bitmask, bit n - 1 for SEMn. Parsed from labels such as
+// "SEM3 & SEM4", where each SEMn is matched as a whole number so SEM1 never matches SEM10.
+final class Semesters implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int MAX_SEMESTER = 31;
+    public static final Semesters NONE = new Semesters(0);
+
+    private static final Pattern SEMESTER = Pattern.compile("\\bSEM\\s*(\\d+)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final int mask;
+
+    private Semesters(int mask) {
+        this.mask = mask;
+    }
+
+    public static Semesters of(int... semesters) {
+        int mask = 0;
+        for (int semester : semesters) {
+            if (semester < 1 || semester > MAX_SEMESTER) {
+                throw new IllegalArgumentException("No such semester: " + semester);
+            }
+            mask |= 1 << (semester - 1);
+        }
+        return new Semesters(mask);
+    }
+
+    // Labels with no SEMn in them give NONE
+    public static Semesters parse(String label) {
+        if (label == null) {
+            return NONE;
+        }
+        int mask = 0;
+        Matcher matcher = SEMESTER.matcher(label);
+        while (matcher.find()) {
+            String digits = matcher.group(1);
+            int semester = digits.length() <= 2 ? Integer.parseInt(digits) : 0;
+            if (semester >= 1 && semester <= MAX_SEMESTER) {
+                mask |= 1 << (semester - 1);
+            }
+        }
+        return mask == 0 ? NONE : new Semesters(mask);
+    }
+
+    public int getMask() {
+        return mask;
+    }
+
+    public boolean contains(int semester) {
+        return semester >= 1 && semester <= MAX_SEMESTER && (mask & (1 << (semester - 1))) != 0;
+    }
+
+    public boolean isEmpty() {
+        return mask == 0;
+    }
+
+    // Calls the action with each semester in ascending order
+    public void forEach(IntConsumer action) {
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            action.accept(Integer.numberOfTrailingZeros(bits) + 1);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Semesters && ((Semesters) o).mask == mask;
+    }
+
+    @Override
+    public int hashCode() {
+        return mask;
+    }
+
+    // The label as the GUI writes it, e.g. "SEM3 & SEM4"
+    @Override
+    public String toString() {
+        StringBuilder label = new StringBuilder();
+        forEach(semester -> label.append(label.length() > 0 ? " & " : "").append("SEM").append(semester));
+        return label.toString();
     }
-    
 }
 
 // Module class
@@ -177,16 +308,22 @@ class Module implements Serializable {
     private String id;
     private String teacher;
     private String semester;
-    private boolean completed;
-    private boolean passed;
-    private Set<Student> enrolledStudents;
+    private int key = -1;
+
+    // The StudentManagementSystem the module was added to, and the codes of the ID in its module index and
+    // of the teacher in its teachers table
+    private transient StudentManagementSystem owner;
+    private transient int idCode = SymbolTable.NONE;
+    private transient int teacherCode = SymbolTable.NONE;
+
+    // The semesters of the label, parsed when first asked for after it changes
+    private transient volatile Semesters semesters;
 
     public Module(String name, String id, String teacher, String semester) {
         this.name = name;
         this.id = id;
         this.teacher = teacher;
         this.semester = semester;
-        this.enrolledStudents = new HashSet<>();
     }
 
     // Getters and setters
@@ -206,12 +343,61 @@ class Module implements Serializable {
         this.id = id;
     }
 
+    // Code of the ID in the owner's module index, equal codes mean equal IDs. Set by the owner when the
+    // module is added or its ID is changed through updateModule.
+    int getIdCode() {
+        return idCode;
+    }
+
+    void setIdCode(int idCode) {
+        this.idCode = idCode;
+    }
+
+    // Code of the teacher in the owner's teachers table, equal codes mean equal teachers. NONE while the
+    // module is in no system.
+    int getTeacherCode() {
+        return teacherCode;
+    }
+
+    // The semesters named in the semester label
+    public Semesters getSemesters() {
+        Semesters current = semesters;
+        if (current == null) {
+            current = Semesters.parse(semester);
+            semesters = current;
+        }
+        return current;
+    }
+
+    // Copy of the students enrolled in the module, the enrollments are kept by the StudentManagementSystem
     public Set<Student> getEnrolledStudents() {
-        return enrolledStudents;
+        StudentManagementSystem current = owner;
+        return current != null ? current.getEnrolledStudents(this) : Collections.emptySet();
+    }
+
+    void setOwner(StudentManagementSystem owner) {
+        this.owner = owner;
+        internLabels();
+    }
+
+    // Swaps the teacher and semester for the owner's shared Strings, so a label repeated across modules is
+    // held once per system
+    private void internLabels() {
+        StudentManagementSystem current = owner;
+        if (current != null) {
+            teacherCode = current.getTeachers().intern(teacher);
+            teacher = current.getTeachers().symbol(teacherCode);
+            semester = current.getSemesterLabels().symbol(current.getSemesterLabels().intern(semester));
+        }
+    }
+
+    // Key given by the StudentManagementSystem when added, it does not change with the ID
+    int getKey() {
+        return key;
     }
 
-    public void setEnrolledStudents(Set<Student> enrolledStudents) {
-        this.enrolledStudents = enrolledStudents;
+    void setKey(int key) {
+        this.key = key;
     }
 
     public Object getValue() {
@@ -224,6 +410,7 @@ class Module implements Serializable {
 
     public void setTeacher(String teacher) {
         this.teacher = teacher;
+        internLabels();
     }
 
     public String getSemester() {
@@ -232,254 +419,1370 @@ class Module implements Serializable {
 
     public void setSemester(String semester) {
         this.semester = semester;
+        this.semesters = null;
+        internLabels();
     }
 
     @Override
     public String toString() {
-        return "Module: " + name + ", ID: " + id + ", Teacher: " + teacher + ", Semesters: " + semester;
+        return "Module: " + name + ", ID: " + getId() + ", Teacher: " + getTeacher() + ", Semesters: "
+                + getSemester();
     }
+}
+
+// Grade class. A grade in a StudentManagementSystem is a view of one slot of its GradeStore, made when
+// asked for, and two views of the same grade are equal. A grade made with the public constructor is in no
+// store and holds its own values. Changing a stored grade goes through its StudentManagementSystem.
+class Grade implements Serializable {
+    private final transient GradeStore store;
+    private int key;
+    private int sequence;
+    private final Values values;
 
-    public boolean isCompleted() {
-        return completed;
+    // Values of a grade that is in no store
+    private static final class Values implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private Student student;
+        private Module module;
+        private double grade;
     }
 
-    public void setCompleted(boolean completed) {
-        this.completed = completed;
+    public Grade(Student student, Module module, double grade) {
+        this.store = null;
+        this.key = -1;
+        this.sequence = -1;
+        this.values = new Values();
+        values.student = student;
+        values.module = module;
+        values.grade = grade;
     }
 
-    public boolean isPassed() {
-        return passed;
+    Grade(GradeStore store, int key) {
+        this.store = store;
+        this.key = key;
+        this.sequence = store.getSequence(key);
+        this.values = null;
     }
 
-    public void setPassed(boolean passed) {
-        this.passed = passed;
+    // Getters and setters
+    public Student getStudent() {
+        return store != null ? store.getStudent(key) : values.student;
     }
 
-}
+    // A stored grade is moved by removing it and adding it again, this view then refers to the new grade
+    public void setStudent(Student student) {
+        if (store != null) {
+            store.getOwner().moveGrade(this, student, getModule());
+        } else {
+            values.student = student;
+        }
+    }
 
-// Grade class
-class Grade implements Serializable {
-    private Student student;
-    private Module module;
-    private double grade;
+    public Module getModule() {
+        return store != null ? store.getModule(key) : values.module;
+    }
 
-    public Grade(Student student, Module module, double grade) {
+    public void setModule(Module module) {
+        if (store != null) {
+            store.getOwner().moveGrade(this, getStudent(), module);
+        } else {
+            values.module = module;
+        }
+    }
+
+    public double getGrade() {
+        return store != null ? store.getValue(key) : values.grade;
+    }
+
+    public void setGrade(double grade) {
+        if (store != null) {
+            store.getOwner().updateGrade(this, grade);
+        } else {
+            values.grade = grade;
+        }
+    }
+
+    // Slot in the GradeStore. The slot of a removed grade is reused once the removal has been notified.
+    int getKey() {
+        return key;
+    }
+
+    // Number given to the grade when it was added, increasing and never reused within its store
+    int getSequence() {
+        return sequence;
+    }
+
+    // Whether this is a view of a grade still in the store
+    boolean isIn(GradeStore store) {
+        return store != null && this.store == store && store.isLive(key, sequence);
+    }
+
+    // Called by StudentManagementSystem.moveGrade
+    void movedTo(int key) {
+        this.key = key;
+        this.sequence = store.getSequence(key);
+    }
+
+    // A view is serialized as a grade in no store, with the values it has now
+    private Object writeReplace() {
+        return store != null ? new Grade(getStudent(), getModule(), getGrade()) : this;
+    }
+
+    public Object getValue() {
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (store == null || !(o instanceof Grade)) {
+            return this == o;
+        }
+        Grade other = (Grade) o;
+        return store == other.store && key == other.key && sequence == other.sequence;
+    }
+
+    // Changes when a stored grade is moved to another student or module
+    @Override
+    public int hashCode() {
+        return store != null ? sequence : System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return "Student ID: " + getStudent().getId() + ", Module ID: " + getModule().getId() + ", Grade: "
+                + getGrade();
+    }
+}
+
+// A change made to the StudentManagementSystem, passed to its DataChangeListeners
+class DataChange {
+    enum Type {
+        STUDENT_ADDED, STUDENT_REMOVED, STUDENT_UPDATED,
+        MODULE_ADDED, MODULE_REMOVED, MODULE_UPDATED,
+        ENROLLED, UNENROLLED,
+        GRADE_ADDED, GRADE_REMOVED, GRADE_UPDATED,
+        RELOADED
+    }
+
+    private final Type type;
+    private final Student student;
+    private final Module module;
+    private final Grade grade;
+    private final String oldId;
+    private final double oldGradeValue;
+    private final boolean cascade;
+
+    private DataChange(Type type, Student student, Module module, Grade grade, String oldId, double oldGradeValue,
+            boolean cascade) {
+        this.type = type;
         this.student = student;
         this.module = module;
         this.grade = grade;
+        this.oldId = oldId;
+        this.oldGradeValue = oldGradeValue;
+        this.cascade = cascade;
+    }
+
+    static DataChange of(Type type, Student student, Module module, Grade grade) {
+        return new DataChange(type, student, module, grade, null, Double.NaN, false);
+    }
+
+    static DataChange updated(Type type, Student student, Module module, String oldId) {
+        return new DataChange(type, student, module, null, oldId, Double.NaN, false);
+    }
+
+    static DataChange gradeUpdated(Grade grade, double oldGradeValue) {
+        return new DataChange(Type.GRADE_UPDATED, grade.getStudent(), grade.getModule(), grade, null, oldGradeValue,
+                false);
+    }
+
+    // An enrollment or grade removed because its student or module was removed
+    static DataChange cascade(Type type, Student student, Module module, Grade grade) {
+        return new DataChange(type, student, module, grade, null, Double.NaN, true);
+    }
+
+    public Type getType() {
+        return type;
     }
 
-    // Getters and setters
     public Student getStudent() {
         return student;
     }
 
-    public void setStudent(Student student) {
+    public Module getModule() {
+        return module;
+    }
+
+    public Grade getGrade() {
+        return grade;
+    }
+
+    // Previous ID of an updated student or module
+    public String getOldId() {
+        return oldId;
+    }
+
+    // Previous value of an updated grade
+    public double getOldGradeValue() {
+        return oldGradeValue;
+    }
+
+    public boolean isCascade() {
+        return cascade;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + (student != null ? student.getId() : "") + " " + (module != null ? module.getId() : "");
+    }
+}
+
+// Listener for changes made to the StudentManagementSystem, single changes arrive as a one-element list
+interface DataChangeListener {
+    void dataChanged(List<DataChange> changes);
+}
+
+// Enrollment change class, one (student, module) pair to enroll or unenroll
+class EnrollmentChange {
+    private final Student student;
+    private final Module module;
+    private final boolean enroll;
+
+    public EnrollmentChange(Student student, Module module, boolean enroll) {
         this.student = student;
+        this.module = module;
+        this.enroll = enroll;
+    }
+
+    public Student getStudent() {
+        return student;
     }
 
     public Module getModule() {
         return module;
     }
 
-    public void setModule(Module module) {
+    public boolean isEnroll() {
+        return enroll;
+    }
+}
+
+// Dashboard row class, one per enrolled or graded (student, module) pair
+class DashboardRow {
+    private final Student student;
+    private final Module module;
+    private final Grade grade;
+    private final boolean enrolled;
+
+    public DashboardRow(Student student, Module module, Grade grade, boolean enrolled) {
+        this.student = student;
         this.module = module;
+        this.grade = grade;
+        this.enrolled = enrolled;
     }
 
-    public double getGrade() {
+    public Student getStudent() {
+        return student;
+    }
+
+    public Module getModule() {
+        return module;
+    }
+
+    public Grade getGrade() {
         return grade;
     }
 
-    public void setGrade(double grade) {
-        this.grade = grade;
+    public Double getGradeValue() {
+        return grade == null ? null : grade.getGrade();
     }
 
-    public Object getValue() {
-        return null;
+    public boolean isEnrolled() {
+        return enrolled;
     }
 
-    @Override
-    public String toString() {
-        return "Student ID: " + student.getId() + ", Module ID: " + module.getId() + ", Grade: " + grade;
+    public String getStatus() {
+        return getStatus(getGradeValue(), enrolled);
+    }
+
+    // Pass, Fail and In Progress while enrolled, Completed or To Repeat afterwards
+    public static String getStatus(Double gradeValue, boolean enrolled) {
+        if (gradeValue == null) {
+            return "In Progress";
+        }
+        boolean passed = gradeValue >= StudentManagementSystem.PASS_MARK;
+        if (enrolled) {
+            return passed ? "Pass" : "Fail";
+        }
+        return passed ? "Completed" : "To Repeat";
     }
 }
 
 // Student management system class
 class StudentManagementSystem {
+    public static final double PASS_MARK = 40;
+
+    // Students per task of getEligibleStudents, fewer students are checked on the calling thread
+    private static final int ELIGIBILITY_STUDENTS_PER_TASK = 1024;
+
+    // Runs the tasks of getEligibleStudents. Its own pool, as the caller waits for the tasks while holding
+    // the read lock, and the workers only start when first needed.
+    private static final ForkJoinPool ELIGIBILITY_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     private Set<Student> students;
     private Set<Module> modules;
-    private Set<Grade> grades;
 
-    // Getters for students, modules and grades
+    // Indexes of students and modules by ID code, kept in step with the sets above
+    private final IdIndex<Student> studentsById = new IdIndex<>();
+    private final IdIndex<Module> modulesById = new IdIndex<>();
+
+    // Teacher names and semester labels of the modules, each held once. They only grow, by the distinct
+    // values seen while this system is in use.
+    private final SymbolTable teachers = new SymbolTable();
+    private final SymbolTable semesterLabels = new SymbolTable();
+
+    // Modules of each semester, at index n for SEMn, kept in step with modules. A module's semesters are
+    // read when it is added, so its semester label must not change while it is in the system.
+    private final List<Set<Module>> modulesBySemester = new ArrayList<>();
+
+    // Change listeners, and the changes of the current batch not yet passed to them
+    private final List<DataChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private List<DataChange> pendingChanges = new ArrayList<>();
+    private int batchDepth;
+    private int loadDepth;
+
+    // Guards all the data above and below, reads share the read lock and every change takes the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Keys given to students and modules as they are added, grades get their slot in the grade store
+    private int nextStudentKey;
+    private int nextModuleKey;
+
+    // Publishes an immutable version of the data after every change, for readers that must not block
+    private final StoreVersionTracker versionTracker;
+
+    // Writes the CSV file, listening for changes to know which sections need writing again
+    private final CsvDatabaseWriter csvWriter;
+
+    // One record per enrolled or graded (student, module) pair, indexed by the pair
+    private final EnrollmentStore enrollments = new EnrollmentStore();
+
+    // Grades as columns of primitive values, the pair records point to the first grade of each pair
+    private final GradeStore gradeStore = new GradeStore(this, enrollments);
+
+    // Trigram indexes of the students' IDs, names and emails and of the modules' IDs, names, teachers and
+    // semesters, for the Filter dialogs
+    private final TextSearchIndex studentSearch = new TextSearchIndex();
+    private final TextSearchIndex moduleSearch = new TextSearchIndex();
+
+    // Sorted IDs and names of the students and modules, for the suggestions of the ID fields
+    private final PrefixIndex studentPrefixes = new PrefixIndex();
+    private final PrefixIndex modulePrefixes = new PrefixIndex();
+
+    // Getters for students, modules and grades, each returns a copy that later changes do not affect
     public Set<Student> getStudents() {
-        return students;
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableSet(new HashSet<>(students));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public Set<Module> getModules() {
-        return modules;
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableSet(new HashSet<>(modules));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Grade> getGrades() {
+        lock.readLock().lock();
+        try {
+            List<Grade> copy = new ArrayList<>(gradeStore.size());
+            gradeStore.forEach(slot -> copy.add(new Grade(gradeStore, slot)));
+            return Collections.unmodifiableList(copy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getGradeCount() {
+        lock.readLock().lock();
+        try {
+            return gradeStore.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean containsStudent(Student student) {
+        lock.readLock().lock();
+        try {
+            return students.contains(student);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean containsModule(Module module) {
+        lock.readLock().lock();
+        try {
+            return modules.contains(module);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Running grade statistics of a student or module, kept up to date as grades change.
+    // A student or module that is not in the system has no grades.
+    public GradeSummary getStudentStats(Student student) {
+        lock.readLock().lock();
+        try {
+            return students.contains(student) ? gradeStore.summarizeStudent(student.getKey()) : GradeSummary.EMPTY;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public GradeSummary getModuleStats(Module module) {
+        lock.readLock().lock();
+        try {
+            return modules.contains(module) ? gradeStore.summarizeModule(module.getKey()) : GradeSummary.EMPTY;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    public Set<Grade> getGrades() {
-        return grades;
+    // Statistics of every module, in one read
+    public Map<Module, GradeSummary> getAllModuleStats() {
+        lock.readLock().lock();
+        try {
+            GradeSummary[] byKey = gradeStore.summarizeModules();
+            Map<Module, GradeSummary> stats = new HashMap<>();
+            for (Module module : modules) {
+                stats.put(module, byKey[module.getKey()]);
+            }
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Grade distributions, merged from the distribution kept for each module. The results are copies.
+    public GradeDistribution getModuleDistribution(Module module) {
+        lock.readLock().lock();
+        try {
+            GradeDistribution distribution = new GradeDistribution();
+            if (modules.contains(module)) {
+                gradeStore.mergeModuleDistribution(module.getKey(), distribution);
+            }
+            return distribution;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<Module, GradeDistribution> getAllModuleDistributions() {
+        lock.readLock().lock();
+        try {
+            Map<Module, GradeDistribution> distributions = new HashMap<>();
+            for (Module module : modules) {
+                GradeDistribution distribution = new GradeDistribution();
+                gradeStore.mergeModuleDistribution(module.getKey(), distribution);
+                distributions.put(module, distribution);
+            }
+            return distributions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // All the modules of the teacher together
+    public GradeDistribution getTeacherDistribution(String teacher) {
+        int teacherCode = teachers.find(teacher);
+        lock.readLock().lock();
+        try {
+            GradeDistribution distribution = new GradeDistribution();
+            if (teacherCode != SymbolTable.NONE) {
+                for (Module module : modules) {
+                    if (module.getTeacherCode() == teacherCode) {
+                        gradeStore.mergeModuleDistribution(module.getKey(), distribution);
+                    }
+                }
+            }
+            return distribution;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // All the modules of semester n, a module in several semesters counts in each
+    public GradeDistribution getSemesterDistribution(int semester) {
+        GradeDistribution distribution = new GradeDistribution();
+        if (semester < 1 || semester > Semesters.MAX_SEMESTER) {
+            return distribution;
+        }
+        lock.readLock().lock();
+        try {
+            for (Module module : modulesBySemester.get(semester)) {
+                gradeStore.mergeModuleDistribution(module.getKey(), distribution);
+            }
+            return distribution;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Progress of a student from the best grade of each module and the enrollments. It is cached in the
+    // student until StudentProgressTracker drops it, so it is only worked out again after a change.
+    public StudentProgress getProgress(Student student) {
+        StudentProgress progress = student.getCachedProgress();
+        if (progress != null) {
+            return progress;
+        }
+        lock.readLock().lock();
+        try {
+            if (!students.contains(student)) {
+                return StudentProgress.EMPTY;
+            }
+            // No change can come in while the read lock is held, so this is still current when cached
+            progress = gradeStore.progressOf(student);
+            student.setCachedProgress(progress);
+            return progress;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Students that can enroll in the module, those not enrolled in it and not passed it, as in the
+    // Enrollment tab. Sorted by the order the students were added.
+    public List<Student> getEligibleStudents(Module module) {
+        return getEligibleStudents(Collections.singletonList(module)).get(module);
+    }
+
+    // The same for many modules at once. Each task takes a range of students and checks all the modules
+    // for a student with a few word operations on the bits of its progress. The first range is checked on
+    // the calling thread and the others on ELIGIBILITY_POOL. The read lock is held until every task is
+    // done, so the tasks read the grades without taking it.
+    public Map<Module, List<Student>> getEligibleStudents(Collection<Module> requested) {
+        lock.readLock().lock();
+        try {
+            Student[] byKey = students.toArray(new Student[0]);
+            Arrays.sort(byKey, Comparator.comparingInt(Student::getKey));
+
+            // The lists of the result, and for each module key the index of its list, worked out once
+            Map<Module, List<Student>> eligible = new LinkedHashMap<>();
+            for (Module module : requested) {
+                eligible.put(module, new ArrayList<>());
+            }
+            List<List<Student>> lists = new ArrayList<>();
+            int[] listOfKey = new int[nextModuleKey];
+            Arrays.fill(listOfKey, -1);
+            long[] wanted = new long[(nextModuleKey >>> 6) + 1];
+            for (Map.Entry<Module, List<Student>> entry : eligible.entrySet()) {
+                Module module = entry.getKey();
+                if (modules.contains(module)) {
+                    listOfKey[module.getKey()] = lists.size();
+                    lists.add(entry.getValue());
+                    wanted[module.getKey() >>> 6] |= 1L << module.getKey();
+                }
+            }
+            if (lists.isEmpty()) {
+                return eligible;
+            }
+
+            List<ForkJoinTask<List<List<Student>>>> tasks = new ArrayList<>();
+            for (int from = ELIGIBILITY_STUDENTS_PER_TASK; from < byKey.length; from += ELIGIBILITY_STUDENTS_PER_TASK) {
+                int start = from;
+                int end = Math.min(byKey.length, from + ELIGIBILITY_STUDENTS_PER_TASK);
+                tasks.add(ELIGIBILITY_POOL.submit(() -> eligibleInRange(byKey, start, end, wanted, listOfKey,
+                        lists.size())));
+            }
+            List<List<Student>> first = eligibleInRange(byKey, 0, Math.min(byKey.length, ELIGIBILITY_STUDENTS_PER_TASK),
+                    wanted, listOfKey, lists.size());
+
+            // Merged in student order, each task's lists are in the order of lists
+            addEligible(lists, first);
+            for (ForkJoinTask<List<List<Student>>> task : tasks) {
+                addEligible(lists, task.join());
+            }
+            return eligible;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void addEligible(List<List<Student>> lists, List<List<Student>> range) {
+        for (int i = 0; i < range.size(); i++) {
+            if (range.get(i) != null) {
+                lists.get(i).addAll(range.get(i));
+            }
+        }
+    }
+
+    // Runs while the caller of getEligibleStudents holds the read lock. Returns a list for each of the
+    // requested modules, null when no student of the range can enroll in it.
+    private List<List<Student>> eligibleInRange(Student[] byKey, int start, int end, long[] wanted,
+            int[] listOfKey, int listCount) {
+        List<List<Student>> byList = new ArrayList<>(Collections.nCopies(listCount, null));
+        long[] eligible = new long[wanted.length];
+        for (int i = start; i < end; i++) {
+            Student student = byKey[i];
+            StudentProgress progress = student.getCachedProgress();
+            if (progress == null) {
+                progress = gradeStore.progressOf(student);
+                student.setCachedProgress(progress);
+            }
+            progress.eligibleAmong(wanted, eligible);
+            for (int word = 0; word < eligible.length; word++) {
+                for (long bits = eligible[word]; bits != 0; bits &= bits - 1) {
+                    int list = listOfKey[word << 6 | Long.numberOfTrailingZeros(bits)];
+                    if (byList.get(list) == null) {
+                        byList.set(list, new ArrayList<>());
+                    }
+                    byList.get(list).add(student);
+                }
+            }
+        }
+        return byList;
+    }
+
+    // Modules taught in semester n (SEMn), found through the semester index
+    public List<Module> getModulesInSemester(int semester) {
+        if (semester < 1 || semester > Semesters.MAX_SEMESTER) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(modulesBySemester.get(semester)));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     // Get student or module by ID
     public Optional<Student> getStudentById(String studentId) {
-        return students.stream().filter(s -> s.getId().equals(studentId)).findFirst();
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(studentsById.get(studentId));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public Optional<Module> getModuleById(String moduleId) {
-        return modules.stream().filter(m -> m.getId().equals(moduleId)).findFirst();
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(modulesById.get(moduleId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Enrollments are looked up by (student, module) pair in the enrollment store
+    public boolean isEnrolled(Student student, Module module) {
+        lock.readLock().lock();
+        try {
+            return modules.contains(module) && enrollments.isEnrolled(student.getKey(), module.getKey());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<Module> getEnrolledModules(Student student) {
+        lock.readLock().lock();
+        try {
+            Set<Module> enrolled = new HashSet<>();
+            for (int key : enrollments.enrolledModuleKeys(student.getKey())) {
+                enrolled.add(gradeStore.getModuleByKey(key));
+            }
+            return Collections.unmodifiableSet(enrolled);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<Student> getEnrolledStudents(Module module) {
+        lock.readLock().lock();
+        try {
+            Set<Student> enrolled = new HashSet<>();
+            for (int key : enrollments.enrolledStudentKeys(module.getKey())) {
+                enrolled.add(gradeStore.getStudentByKey(key));
+            }
+            return Collections.unmodifiableSet(enrolled);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Record of the pair: enrollment, first grade and number of grades, null when the student was never
+    // enrolled in nor graded for the module
+    public EnrollmentRecord getEnrollment(Student student, Module module) {
+        lock.readLock().lock();
+        try {
+            int record = enrollments.find(student.getKey(), module.getKey());
+            return record == EnrollmentStore.NONE ? null : recordOf(student, module, record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Called with the lock held
+    private EnrollmentRecord recordOf(Student student, Module module, int record) {
+        int slot = enrollments.getFirstGrade(record);
+        return new EnrollmentRecord(student, module, enrollments.isEnrolled(record),
+                slot == GradeStore.NONE ? null : new Grade(gradeStore, slot), enrollments.getAttempts(record));
+    }
+
+    // Students and modules whose indexed text matches the query, ignoring case
+    public SearchMatches search(String query, TextSearchIndex.Mode mode) {
+        lock.readLock().lock();
+        try {
+            return new SearchMatches(query, mode, studentSearch.search(query, mode), moduleSearch.search(query, mode));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Up to limit students or modules whose ID or name, or a word of the name, starts with the prefix,
+    // ignoring case, in alphabetical order of what matched
+    public List<Student> suggestStudents(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Student> found = new ArrayList<>();
+            for (int key : studentPrefixes.find(prefix, limit)) {
+                found.add(gradeStore.getStudentByKey(key));
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Module> suggestModules(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Module> found = new ArrayList<>();
+            for (int key : modulePrefixes.find(prefix, limit)) {
+                found.add(gradeStore.getModuleByKey(key));
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Immutable version of the data as of the last change, never waits for the lock and never changes
+    public StoreVersion getCurrentVersion() {
+        return versionTracker.getCurrent();
+    }
+
+    // Held by code that must see no change while it reads several things, such as a save being prepared
+    Lock readLock() {
+        return lock.readLock();
     }
 
     // HashSets for students, modules and grades
     public StudentManagementSystem() {
         students = new HashSet<>();
         modules = new HashSet<>();
-        grades = new HashSet<>();
+        for (int semester = 0; semester <= Semesters.MAX_SEMESTER; semester++) {
+            modulesBySemester.add(new HashSet<>());
+        }
+        addDataChangeListener(new StudentProgressTracker(this));
+        versionTracker = new StoreVersionTracker(this);
+        addDataChangeListener(versionTracker);
+        csvWriter = new CsvDatabaseWriter();
+        addDataChangeListener(csvWriter);
     }
 
-    // Add, remove, update student
+    // Add, remove, update student. Adding or renaming to an ID another student has throws
+    // IllegalArgumentException.
     public void addStudent(Student student) {
-        students.add(student);
+        beginBatch();
+        try {
+            int idCode = studentsById.intern(student.getId());
+            checkStudentIdFree(idCode, student);
+            if (student.getKey() < 0) {
+                student.setKey(nextStudentKey++);
+            }
+            student.setOwner(this);
+            student.setIdCode(idCode);
+            gradeStore.registerStudent(student);
+            students.add(student);
+            studentsById.put(idCode, student);
+            indexStudentText(student);
+            fireChange(DataChange.of(DataChange.Type.STUDENT_ADDED, student, null, null));
+        } finally {
+            endBatch();
+        }
     }
 
     public void removeStudent(Student student) {
-        students.remove(student);
-        grades.removeIf(grade -> grade.getStudent().equals(student));
+        beginBatch();
+        try {
+            if (students.remove(student)) {
+                removeStudentLocked(student);
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    private void removeStudentLocked(Student student) {
+        studentsById.remove(student.getIdCode(), student);
+        studentSearch.remove(student.getKey());
+        studentPrefixes.remove(student.getKey());
+        fireChange(DataChange.of(DataChange.Type.STUDENT_REMOVED, student, null, null));
+
+        // Cascade to the student's enrollments and own grades only
+        for (int moduleKey : enrollments.enrolledModuleKeys(student.getKey())) {
+            enrollments.unenroll(student.getKey(), moduleKey);
+            fireChange(DataChange.cascade(DataChange.Type.UNENROLLED, student,
+                    gradeStore.getModuleByKey(moduleKey), null));
+        }
+
+        List<Integer> studentGrades = new ArrayList<>();
+        gradeStore.forEachOfStudent(student.getKey(), studentGrades::add);
+        for (int slot : studentGrades) {
+            gradeStore.remove(slot);
+            Grade grade = new Grade(gradeStore, slot);
+            fireChange(DataChange.cascade(DataChange.Type.GRADE_REMOVED, student, grade.getModule(), grade));
+        }
     }
 
     public void updateStudent(Student student, String name, String id, String email) {
-        student.setName(name);
-        student.setId(id);
-        student.setEmail(email);
+        beginBatch();
+        try {
+            String oldId = student.getId();
+
+            // Re-key the index when the ID changes
+            if (students.contains(student)) {
+                int idCode = studentsById.intern(id);
+                checkStudentIdFree(idCode, student);
+                if (idCode != student.getIdCode()) {
+                    studentsById.remove(student.getIdCode(), student);
+                    studentsById.put(idCode, student);
+                    student.setIdCode(idCode);
+                }
+            }
+            student.setName(name);
+            student.setId(id);
+            student.setEmail(email);
+            if (students.contains(student)) {
+                indexStudentText(student);
+            }
+            fireChange(DataChange.updated(DataChange.Type.STUDENT_UPDATED, student, null, oldId));
+        } finally {
+            endBatch();
+        }
     }
 
-    // Add, remove, update module
+    // Add, remove, update module. Adding or renaming to an ID another module has throws
+    // IllegalArgumentException.
     public void addModule(Module module) {
-        modules.add(module);
+        beginBatch();
+        try {
+            int idCode = modulesById.intern(module.getId());
+            checkModuleIdFree(idCode, module);
+            if (module.getKey() < 0) {
+                module.setKey(nextModuleKey++);
+            }
+            module.setOwner(this);
+            module.setIdCode(idCode);
+            gradeStore.registerModule(module);
+            modules.add(module);
+            modulesById.put(idCode, module);
+            indexModuleText(module);
+            module.getSemesters().forEach(semester -> modulesBySemester.get(semester).add(module));
+            fireChange(DataChange.of(DataChange.Type.MODULE_ADDED, null, module, null));
+        } finally {
+            endBatch();
+        }
     }
 
     public void removeModule(Module module) {
-        modules.remove(module);
-        grades.removeIf(grade -> grade.getModule().equals(module));
+        beginBatch();
+        try {
+            if (modules.remove(module)) {
+                removeModuleLocked(module);
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    private void removeModuleLocked(Module module) {
+        modulesById.remove(module.getIdCode(), module);
+        moduleSearch.remove(module.getKey());
+        modulePrefixes.remove(module.getKey());
+        module.getSemesters().forEach(semester -> modulesBySemester.get(semester).remove(module));
+        fireChange(DataChange.of(DataChange.Type.MODULE_REMOVED, null, module, null));
+
+        // Cascade to the module's enrollments and own grades only
+        for (int studentKey : enrollments.enrolledStudentKeys(module.getKey())) {
+            enrollments.unenroll(studentKey, module.getKey());
+            fireChange(DataChange.cascade(DataChange.Type.UNENROLLED, gradeStore.getStudentByKey(studentKey),
+                    module, null));
+        }
+
+        List<Integer> moduleGrades = new ArrayList<>();
+        gradeStore.forEachOfModule(module.getKey(), moduleGrades::add);
+        for (int slot : moduleGrades) {
+            gradeStore.remove(slot);
+            Grade grade = new Grade(gradeStore, slot);
+            fireChange(DataChange.cascade(DataChange.Type.GRADE_REMOVED, grade.getStudent(), module, grade));
+        }
     }
 
     public void updateModule(Module module, String name, String id) {
-        module.setName(name);
-        module.setId(id);
+        beginBatch();
+        try {
+            String oldId = module.getId();
+
+            // Re-key the index when the ID changes
+            if (modules.contains(module)) {
+                int idCode = modulesById.intern(id);
+                checkModuleIdFree(idCode, module);
+                if (idCode != module.getIdCode()) {
+                    modulesById.remove(module.getIdCode(), module);
+                    modulesById.put(idCode, module);
+                    module.setIdCode(idCode);
+                }
+            }
+            module.setName(name);
+            module.setId(id);
+            if (modules.contains(module)) {
+                indexModuleText(module);
+            }
+            fireChange(DataChange.updated(DataChange.Type.MODULE_UPDATED, null, module, oldId));
+        } finally {
+            endBatch();
+        }
+    }
+
+    // IDs are unique among students and among modules, the same message as the server's 409 responses
+    private void checkStudentIdFree(int idCode, Student student) {
+        Student holder = studentsById.get(idCode);
+        if (holder != null && holder != student) {
+            throw new IllegalArgumentException("Student ID already exists: " + holder.getId());
+        }
+    }
+
+    private void checkModuleIdFree(int idCode, Module module) {
+        Module holder = modulesById.get(idCode);
+        if (holder != null && holder != module) {
+            throw new IllegalArgumentException("Module ID already exists: " + holder.getId());
+        }
+    }
+
+    // ID indexes, for the workers of the parallel loader, which read them while the loading thread holds
+    // the write lock and waits for them
+    IdIndex<Student> getStudentsById() {
+        return studentsById;
+    }
+
+    IdIndex<Module> getModulesById() {
+        return modulesById;
+    }
+
+    // Symbol tables the modules of this system intern their teacher and semester in
+    SymbolTable getTeachers() {
+        return teachers;
+    }
+
+    SymbolTable getSemesterLabels() {
+        return semesterLabels;
+    }
+
+    // Called with the write lock held, replaces the text indexed for the student or module
+    private void indexStudentText(Student student) {
+        studentSearch.put(student.getKey(), student.getId(), student.getName(), student.getEmail());
+        studentPrefixes.put(student.getKey(), student.getId(), student.getName());
+    }
+
+    private void indexModuleText(Module module) {
+        moduleSearch.put(module.getKey(), module.getId(), module.getName(), module.getTeacher(),
+                module.getSemester());
+        modulePrefixes.put(module.getKey(), module.getId(), module.getName());
+    }
+
+    // Enroll, unenroll student from module, returns false when the enrollment was already so.
+    // The student and module must have been added, as for grades.
+    public boolean enrollStudentInModule(Student student, Module module) {
+        beginBatch();
+        try {
+            checkRegistered(student, module);
+            boolean changed = enrollments.enroll(student.getKey(), module.getKey());
+            if (changed) {
+                fireChange(DataChange.of(DataChange.Type.ENROLLED, student, module, null));
+            }
+            return changed;
+        } finally {
+            endBatch();
+        }
     }
 
-    // Enroll, unenroll student from module
-    public void enrollStudentInModule(Student student, Module module) {
-        student.getEnrolledModules().add(module);
-        module.getEnrolledStudents().add(student);
+    public boolean unenrollStudentFromModule(Student student, Module module) {
+        beginBatch();
+        try {
+            boolean changed = enrollments.unenroll(student.getKey(), module.getKey());
+            if (changed) {
+                fireChange(DataChange.of(DataChange.Type.UNENROLLED, student, module, null));
+            }
+            return changed;
+        } finally {
+            endBatch();
+        }
     }
 
-    public void unenrollStudentFromModule(Student student, Module module) {
-        student.getEnrolledModules().remove(module);
-        module.getEnrolledStudents().remove(student);
+    // A student or module never added, added to another system or removed since throws
+    // IllegalArgumentException, as its key would leave a record no student or module owns
+    private void checkRegistered(Student student, Module module) {
+        if (!students.contains(student) || !modules.contains(module)) {
+            throw new IllegalArgumentException("Unknown student or module: " + student.getId() + ", "
+                    + module.getId());
+        }
+    }
+
+    // Applies all the changes or, when one names a student or module not in the system, none of them.
+    // Listeners get one notification for the whole set. Returns the number of enrollments changed.
+    public int applyEnrollmentChanges(Collection<EnrollmentChange> changes) {
+        beginBatch();
+        try {
+            for (EnrollmentChange change : changes) {
+                if (!students.contains(change.getStudent()) || !modules.contains(change.getModule())) {
+                    throw new IllegalArgumentException("Unknown student or module: "
+                            + change.getStudent().getId() + ", " + change.getModule().getId());
+                }
+            }
+
+            int changed = 0;
+            for (EnrollmentChange change : changes) {
+                boolean applied = change.isEnroll()
+                        ? enrollStudentInModule(change.getStudent(), change.getModule())
+                        : unenrollStudentFromModule(change.getStudent(), change.getModule());
+                if (applied) {
+                    changed++;
+                }
+            }
+            return changed;
+        } finally {
+            endBatch();
+        }
     }
 
-    // Add, remove, update grade
+    // Add, remove, update grade. Adding a grade of a student or module not in the system throws
+    // IllegalArgumentException.
     public void addGrade(Student student, Module module, double gradeValue) {
-        Grade grade = new Grade(student, module, gradeValue);
-        grades.add(grade);
+        beginBatch();
+        try {
+            checkRegistered(student, module);
+            Grade grade = new Grade(gradeStore, gradeStore.add(student.getKey(), module.getKey(), gradeValue));
+            fireChange(DataChange.of(DataChange.Type.GRADE_ADDED, student, module, grade));
+        } finally {
+            endBatch();
+        }
     }
 
     public void removeGrade(Grade grade) {
-        grades.remove(grade);
+        beginBatch();
+        try {
+            if (isStored(grade)) {
+                gradeStore.remove(grade.getKey());
+                fireChange(DataChange.of(DataChange.Type.GRADE_REMOVED, grade.getStudent(), grade.getModule(), grade));
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    // Views of grades still in the store, a grade made with the public constructor never is
+    private boolean isStored(Grade grade) {
+        return grade.isIn(gradeStore);
     }
 
+    private void checkStored(Grade grade) {
+        if (!isStored(grade)) {
+            throw new IllegalArgumentException("The grade is not in this system: " + grade);
+        }
+    }
+
+    // Only grades still in the store can be updated or moved, others throw IllegalArgumentException
     public void updateGrade(Grade grade, double newGradeValue) {
-        grade.setGrade(newGradeValue);
+        beginBatch();
+        try {
+            checkStored(grade);
+            double oldGradeValue = grade.getGrade();
+            gradeStore.setValue(grade.getKey(), newGradeValue);
+            fireChange(DataChange.gradeUpdated(grade, oldGradeValue));
+        } finally {
+            endBatch();
+        }
     }
 
-    public Optional<Grade> findGrade(Student student, Module module) {
-        return grades.stream()
-                .filter(grade -> grade.getStudent().equals(student) && grade.getModule().equals(module))
-                .findFirst();
+    // Moves a grade to another student or module, as a removal and an addition with the same value.
+    // The grade then refers to the added grade. Called by Grade.setStudent and Grade.setModule.
+    void moveGrade(Grade grade, Student student, Module module) {
+        beginBatch();
+        try {
+            checkStored(grade);
+            checkRegistered(student, module);
+            int oldSlot = grade.getKey();
+            Grade removed = new Grade(gradeStore, oldSlot);
+            gradeStore.remove(oldSlot);
+            fireChange(DataChange.of(DataChange.Type.GRADE_REMOVED, removed.getStudent(), removed.getModule(),
+                    removed));
+            grade.movedTo(gradeStore.add(student.getKey(), module.getKey(), removed.getGrade()));
+            fireChange(DataChange.of(DataChange.Type.GRADE_ADDED, student, module,
+                    new Grade(gradeStore, grade.getKey())));
+        } finally {
+            endBatch();
+        }
+    }
+
+    // Listeners are told about every change after it has been applied. They are called with the write
+    // lock held, so they see the data as the change left it and must not wait for other threads that
+    // use this StudentManagementSystem.
+    public void addDataChangeListener(DataChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeDataChangeListener(DataChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Changes made between beginBatch and endBatch reach the listeners as one list.
+    // The write lock is held from beginBatch to endBatch, so a batch is applied atomically.
+    private void beginBatch() {
+        lock.writeLock().lock();
+        batchDepth++;
     }
 
-    // Save/Load data to file
-    public void saveToFile(String fileName) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write("Students\n");
-            for (Student student : students) {
-                writer.write(student.getId() + ", " + student.getName() + ", " + student.getEmail() + "\n");
+    private void endBatch() {
+        try {
+            batchDepth--;
+            if (batchDepth == 0 && !pendingChanges.isEmpty()) {
+                List<DataChange> changes = pendingChanges;
+                pendingChanges = new ArrayList<>();
+                for (DataChangeListener listener : listeners) {
+                    listener.dataChanged(Collections.unmodifiableList(changes));
+                }
             }
+        } finally {
+            // The views of removed grades in the changes have been read, their slots can be reused
+            if (batchDepth == 0) {
+                gradeStore.releaseRemoved();
+            }
+            lock.writeLock().unlock();
+        }
+    }
 
-            writer.write("Modules\n");
-            for (Module module : modules) {
-                writer.write(module.getId() + ", " + module.getName() + ", " + module.getTeacher() + ", "
-                        + module.getSemester() + "\n");
+    private void fireChange(DataChange change) {
+        if (loadDepth > 0) {
+            return;
+        }
+        beginBatch();
+        pendingChanges.add(change);
+        endBatch();
+    }
+
+    // While loading, listeners get nothing until a single RELOADED change at the end
+    // Readers wait for the whole load, as they do for a batch
+    void beginLoad() {
+        lock.writeLock().lock();
+        loadDepth++;
+    }
+
+    void endLoad() {
+        try {
+            loadDepth--;
+            if (loadDepth == 0) {
+                gradeStore.trimToSize();
+                enrollments.trimToSize();
+                fireChange(DataChange.of(DataChange.Type.RELOADED, null, null, null));
             }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-            writer.write("Grades\n");
-            for (Grade grade : grades) {
-                writer.write(
-                        grade.getStudent().getId() + ", " + grade.getModule().getId() + ", " + grade.getGrade() + "\n");
+    // Removes every student and module with their grades and enrollments, listeners get one RELOADED
+    void clear() {
+        beginLoad();
+        try {
+            for (Student student : new ArrayList<>(students)) {
+                removeStudent(student);
+            }
+            for (Module module : new ArrayList<>(modules)) {
+                removeModule(module);
             }
+        } finally {
+            endLoad();
+        }
+    }
+
+    public Optional<Grade> findGrade(Student student, Module module) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(gradeOf(student, module));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Dashboard rows built from the enrollments and grades that exist, not every student x module pair
+    public List<DashboardRow> getDashboardRows() {
+        List<DashboardRow> rows = new ArrayList<>();
+        forEachDashboardRow(rows::add);
+        return rows;
+    }
+
+    // Same rows as getDashboardRows, passed one at a time so they can be streamed out.
+    // The read lock is held throughout, so the rows are consistent but changes wait until the end.
+    public void forEachDashboardRow(Consumer<DashboardRow> action) {
+        lock.readLock().lock();
+        try {
+            forEachDashboardRowLocked(action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-            writer.write("Enrollments\n");
-            for (Student student : students) {
-                for (Module module : student.getEnrolledModules()) {
-                    writer.write(student.getId() + ", " + module.getId() + "\n");
+    private void forEachDashboardRowLocked(Consumer<DashboardRow> action) {
+        // One row per pair record: enrolled in a current module, or graded and no longer enrolled, with the
+        // first grade of the pair
+        for (Student student : students) {
+            enrollments.forEachOfStudent(student.getKey(), record -> {
+                Module module = gradeStore.getModuleByKey(enrollments.getModuleKey(record));
+                boolean enrolled = enrollments.isEnrolled(record);
+                if (!enrolled || modules.contains(module)) {
+                    int slot = enrollments.getFirstGrade(record);
+                    action.accept(new DashboardRow(student, module,
+                            slot == GradeStore.NONE ? null : new Grade(gradeStore, slot), enrolled));
                 }
-            }
+            });
+        }
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Grades of a single student or module
+    public List<Grade> getGradesForStudent(Student student) {
+        lock.readLock().lock();
+        try {
+            List<Grade> copy = new ArrayList<>();
+            gradeStore.forEachOfStudent(student.getKey(), slot -> copy.add(new Grade(gradeStore, slot)));
+            return Collections.unmodifiableList(copy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Grade> getGradesForModule(Module module) {
+        lock.readLock().lock();
+        try {
+            List<Grade> copy = new ArrayList<>();
+            gradeStore.forEachOfModule(module.getKey(), slot -> copy.add(new Grade(gradeStore, slot)));
+            return Collections.unmodifiableList(copy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // First grade of the pair, called with the lock held
+    private Grade gradeOf(Student student, Module module) {
+        int slot = gradeStore.find(student.getKey(), module.getKey());
+        return slot == GradeStore.NONE ? null : new Grade(gradeStore, slot);
+    }
+
+    // Save/Load data to file, the file is replaced atomically and unchanged sections are copied over
+    public void saveToFile(String fileName) throws IOException {
+        saveToFile(fileName, captureData());
+    }
+
+    // Writes a copy taken earlier with captureData, safe to call off the editing thread
+    public void saveToFile(String fileName, DataSnapshot data) throws IOException {
+        csvWriter.save(fileName, data);
+    }
+
+    // Copy of the data that can be written out on another thread, taken under the read lock
+    public DataSnapshot captureData() {
+        lock.readLock().lock();
+        try {
+            return new DataSnapshot(this, csvWriter.getSectionVersions());
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
-    public void loadFromFile(String fileName) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+    // Single pass: students and modules are indexed as they are read, so references resolve in O(1)
+    public LoadReport loadFromFile(String fileName) {
+        LoadReport report = new LoadReport(fileName);
+        CsvLineTokenizer tokenizer = new CsvLineTokenizer();
+        DatabaseLineHandler handler = new DatabaseLineHandler() {
+            @Override
+            public void student(String id, String name, String email) {
+                addStudent(new Student(name, id, email));
+            }
+
+            @Override
+            public void module(String id, String name, String teacher, String semester) {
+                addModule(new Module(name, id, teacher, semester));
+            }
+
+            @Override
+            public void grade(String studentId, String moduleId, double value) {
+                Student student = studentsById.get(studentId);
+                Module module = modulesById.get(moduleId);
+                if (student != null && module != null) {
+                    addGrade(student, module, value);
+                }
+            }
+
+            @Override
+            public void enrollment(String studentId, String moduleId) {
+                Student student = studentsById.get(studentId);
+                Module module = modulesById.get(moduleId);
+                if (student != null && module != null) {
+                    enrollStudentInModule(student, module);
+                }
+            }
+        };
+        int lineNumber = 0;
+
+        beginLoad();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName), 1 << 16)) {
             String line;
             String section = "";
-            int lineNumber = 0;
-    
+
             while ((line = reader.readLine()) != null) {
                 lineNumber++;
-                if (line.equals("Students") || line.equals("Modules") || line.equals("Grades")
-                        || line.equals("Enrollments")) {
+                if (DatabaseLineParser.isSectionHeader(line)) {
                     section = line;
                     continue;
                 }
-    
-                String[] parts = line.split(", ");
-                try {
-                    switch (section) {
-                        case "Students":
-                            addStudent(new Student(parts[1], parts[0], parts[2]));
-                            break;
-                        case "Modules":
-                            addModule(new Module(parts[1], parts[0], parts[2], parts[3]));
-                            break;
-                        case "Enrollments":
-                            Optional<Student> student = students.stream().filter(s -> s.getId().equals(parts[0]))
-                                    .findFirst();
-                            Optional<Module> module = modules.stream().filter(m -> m.getId().equals(parts[1])).findFirst();
-                            if (student.isPresent() && module.isPresent()) {
-                                enrollStudentInModule(student.get(), module.get());
-                            }
-                            break;
-                        case "Grades":
-                            student = students.stream().filter(s -> s.getId().equals(parts[0])).findFirst();
-                            module = modules.stream().filter(m -> m.getId().equals(parts[1])).findFirst();
-                            if (student.isPresent() && module.isPresent()) {
-                                addGrade(student.get(), module.get(), Double.parseDouble(parts[2]));
-                            }
-                            break;
+                if (!line.isEmpty()) {
+                    String error = DatabaseLineParser.parseLine(section, line, tokenizer, handler);
+                    if (error != null) {
+                        report.error(lineNumber, line, error);
                     }
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    System.err.println("Error processing line " + lineNumber + ": " + line);
-                    throw e;
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            report.fail(e);
+        } finally {
+            endLoad();
         }
+
+        report.setLineCount(lineNumber);
+        return report;
     }
-    
+
+    // Memory-mapped loader for very large files, builds the same data as loadFromFile
+    public LoadReport loadFromFileParallel(String fileName) {
+        return new ParallelDatabaseLoader().load(this, fileName);
+    }
+
 }
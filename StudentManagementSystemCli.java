@@ -0,0 +1,543 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the command line mode of the application. It runs
+ *              the load, convert, import-grades, dashboard, stats, distribution and
+ *              eligible commands on a database file without starting the GUI, so they
+ *              can run on a server, starts the HTTP server and its load test, and runs
+ *              the concurrency stress test and the quantile sketch test.
+ *
+*/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+// Command line mode, every command returns the exit code of the process
+class StudentManagementSystemCli {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_DATA_ERRORS = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_IO_ERROR = 3;
+
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+    private final PrintWriter out;
+    private final PrintWriter err;
+
+    public StudentManagementSystemCli() {
+        // Output is buffered and streamed, it is flushed when the command ends
+        this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        this.err = new PrintWriter(System.err, true);
+    }
+
+    public int run(String[] args) {
+        try {
+            return runCommand(args);
+        } catch (IOException e) {
+            err.println("Error: " + e.getMessage());
+            return EXIT_IO_ERROR;
+        } finally {
+            out.flush();
+        }
+    }
+
+    private int runCommand(String[] args) throws IOException {
+        String command = args.length > 0 ? args[0] : "";
+        switch (command) {
+            case "load":
+                return args.length == 2 ? load(args[1]) : usage();
+            case "convert":
+                return args.length == 3 ? convert(args[1], args[2]) : usage();
+            case "import-grades":
+                return args.length == 3 ? importGrades(args[1], args[2]) : usage();
+            case "dashboard":
+                return args.length == 2 || args.length == 3
+                        ? dashboard(args[1], args.length == 3 ? args[2] : null)
+                        : usage();
+            case "stats":
+                return args.length == 2 ? stats(args[1]) : usage();
+            case "distribution":
+                return args.length >= 2 && args.length <= 4 ? distribution(args) : usage();
+            case "eligible":
+                return args.length >= 2 ? eligible(args) : usage();
+            case "serve":
+                return args.length == 2 || args.length == 3
+                        ? serve(args[1], args.length == 3 ? args[2] : null)
+                        : usage();
+            case "loadtest":
+                return args.length >= 2 && args.length <= 4 ? loadTest(args) : usage();
+            case "stresstest":
+                return args.length <= 4 ? stressTest(args) : usage();
+            case "sketchtest":
+                return args.length == 1 ? sketchTest() : usage();
+            case "help":
+                printUsage(out);
+                return EXIT_OK;
+            default:
+                return usage();
+        }
+    }
+
+    private int usage() {
+        printUsage(err);
+        return EXIT_USAGE;
+    }
+
+    private static void printUsage(PrintWriter writer) {
+        writer.println("Usage: java StudentManagementSystemApp <command> [arguments]");
+        writer.println("Without a command the GUI is started.");
+        writer.println();
+        writer.println("  load <file>                       Load a database and report bad lines");
+        writer.println("  convert <from> <to>               Convert between .csv and .snapshot files");
+        writer.println("  import-grades <database.csv> <grades.csv>");
+        writer.println("                                    Add or update the grades, one 'student ID, module ID,");
+        writer.println("                                    grade' per line, nothing is saved if a line is bad");
+        writer.println("  dashboard <file> [output.csv]     Export the dashboard, to standard output by default");
+        writer.println("  stats <file>                      Print grade statistics per module");
+        writer.println("  distribution <file> [module|teacher|semester] [--exact]");
+        writer.println("                                    Print the p10, median, p90 and histogram of the grades");
+        writer.println("                                    per module by default, --exact sorts the grades");
+        writer.println("                                    instead of using the sketches, which are within "
+                + Math.round(100 * QuantileSketch.ALPHA) + "%");
+        writer.println("  eligible <file> [module ID ...]   Count the students that can enroll in each module, all");
+        writer.println("                                    modules by default");
+        writer.println("  serve <database.csv> [port]       Serve the data as JSON over HTTP, port "
+                + StudentManagementSystemServer.DEFAULT_PORT + " by default");
+        writer.println("  loadtest <port> [clients] [requests]");
+        writer.println("                                    Load test the server on this machine, 1000 clients");
+        writer.println("                                    and 20000 requests by default");
+        writer.println("  stresstest [writers] [readers] [seconds]");
+        writer.println("                                    Check the data stays consistent under concurrent");
+        writer.println("                                    changes and reads, 4 writers, 4 readers, 10 s by default");
+        writer.println("  sketchtest                        Check the quantile sketches against the exact quantiles");
+        writer.println();
+        writer.println("Exit codes: 0 ok, 1 bad lines in the data, 2 wrong usage, 3 file error");
+        writer.flush();
+    }
+
+    // Load, report the size of the data and any bad lines
+    private int load(String fileName) throws IOException {
+        StudentManagementSystem sms = new StudentManagementSystem();
+        long start = System.nanoTime();
+        LoadReport report = loadDatabase(sms, fileName);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        StoreVersion version = sms.getCurrentVersion();
+        out.println(fileName + ": " + version.getStudentCount() + " students, " + version.getModuleCount()
+                + " modules, " + version.getGradeCount() + " grades, loaded in " + millis + " ms");
+        if (report.hasErrors()) {
+            out.println(report.getErrorCount() + " bad lines");
+            return EXIT_DATA_ERRORS;
+        }
+        return EXIT_OK;
+    }
+
+    private int convert(String from, String to) throws IOException {
+        requireFile(from);
+        if (isSnapshot(from) && !isSnapshot(to)) {
+            DatabaseSnapshot.convertSnapshotToCsv(from, to);
+            return EXIT_OK;
+        }
+        if (!isSnapshot(from) && isSnapshot(to)) {
+            LoadReport report = DatabaseSnapshot.convertCsvToSnapshot(from, to);
+            printErrors(report);
+            return report.hasErrors() ? EXIT_DATA_ERRORS : EXIT_OK;
+        }
+        err.println("Convert a .csv file to a " + SNAPSHOT_EXTENSION + " file or back.");
+        return EXIT_USAGE;
+    }
+
+    // The grades go through the database journal, so the GUI sees them at its next start
+    private int importGrades(String databaseFileName, String gradesFileName) throws IOException {
+        requireFile(databaseFileName);
+        requireFile(gradesFileName);
+
+        StudentManagementSystem sms = new StudentManagementSystem();
+        try (DatabaseJournal journal = openJournal(sms, databaseFileName)) {
+            // Check every line before changing anything
+            List<Grade> imported = new ArrayList<>();
+            LoadReport report = readGrades(sms, gradesFileName, imported);
+            printErrors(report);
+            if (report.hasErrors()) {
+                out.println(report.getErrorCount() + " bad lines, nothing imported");
+                return EXIT_DATA_ERRORS;
+            }
+
+            int added = 0;
+            int updated = 0;
+            for (Grade grade : imported) {
+                Optional<Grade> existing = sms.findGrade(grade.getStudent(), grade.getModule());
+                if (existing.isPresent()) {
+                    sms.updateGrade(existing.get(), grade.getGrade());
+                    updated++;
+                } else {
+                    sms.addGrade(grade.getStudent(), grade.getModule(), grade.getGrade());
+                    added++;
+                }
+            }
+            journal.compact();
+            out.println(added + " grades added, " + updated + " grades updated");
+            return EXIT_OK;
+        }
+    }
+
+    private static LoadReport readGrades(StudentManagementSystem sms, String fileName, List<Grade> grades)
+            throws IOException {
+        LoadReport report = new LoadReport(fileName);
+        CsvLineTokenizer tokenizer = new CsvLineTokenizer();
+        String[] problem = new String[1];
+        DatabaseLineHandler handler = new DatabaseLineHandler() {
+            @Override
+            public void student(String id, String name, String email) {
+            }
+
+            @Override
+            public void module(String id, String name, String teacher, String semester) {
+            }
+
+            @Override
+            public void grade(String studentId, String moduleId, double value) {
+                Optional<Student> student = sms.getStudentById(studentId);
+                Optional<Module> module = sms.getModuleById(moduleId);
+                if (student.isPresent() && module.isPresent()) {
+                    grades.add(new Grade(student.get(), module.get(), value));
+                } else {
+                    problem[0] = "unknown student or module";
+                }
+            }
+
+            @Override
+            public void enrollment(String studentId, String moduleId) {
+            }
+        };
+
+        int lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                // The file may be a copy of the Grades section, header included
+                if (line.isEmpty() || line.equals("Grades")) {
+                    continue;
+                }
+                problem[0] = null;
+                String error = DatabaseLineParser.parseLine("Grades", line, tokenizer, handler);
+                if (error == null) {
+                    error = problem[0];
+                }
+                if (error != null) {
+                    report.error(lineNumber, line, error);
+                }
+            }
+        }
+        report.setLineCount(lineNumber);
+        return report;
+    }
+
+    private int dashboard(String fileName, String outputFileName) throws IOException {
+        StudentManagementSystem sms = new StudentManagementSystem();
+        LoadReport report = loadDatabase(sms, fileName);
+
+        if (outputFileName == null) {
+            writeDashboard(sms, out);
+        } else {
+            try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outputFileName), 1 << 16))) {
+                writeDashboard(sms, writer);
+                if (writer.checkError()) {
+                    throw new IOException("Could not write " + outputFileName);
+                }
+            }
+        }
+        return report.hasErrors() ? EXIT_DATA_ERRORS : EXIT_OK;
+    }
+
+    // Same columns as the Dashboard tab, written row by row from one version of the data
+    private static void writeDashboard(StudentManagementSystem sms, PrintWriter writer) {
+        writer.println("Student, Module, Grade, Status, Enrolled");
+        sms.getCurrentVersion().forEachDashboardRow((student, module, grade, enrolled) -> {
+            Double gradeValue = grade == null ? null : grade.getGrade();
+            writer.println(student.getName() + ", " + module.getName() + ", "
+                    + (gradeValue == null ? "" : gradeValue) + ", " + DashboardRow.getStatus(gradeValue, enrolled)
+                    + ", " + (enrolled ? "Yes" : "No"));
+        });
+    }
+
+    private int stats(String fileName) throws IOException {
+        StudentManagementSystem sms = new StudentManagementSystem();
+        LoadReport report = loadDatabase(sms, fileName);
+
+        // The running statistics kept by sms, by module key
+        StoreVersion version = sms.getCurrentVersion();
+        Map<Integer, GradeSummary> statsByModule = new HashMap<>();
+        sms.getAllModuleStats().forEach((module, stats) -> statsByModule.put(module.getKey(), stats));
+
+        // Sorted by module ID, so the output is the same from one run to the next
+        List<ModuleRecord> modules = new ArrayList<>();
+        version.forEachModule(modules::add);
+        modules.sort(Comparator.comparing(ModuleRecord::getId));
+
+        out.println(version.getStudentCount() + " students, " + version.getModuleCount() + " modules, "
+                + version.getGradeCount() + " grades");
+        out.printf("%-10s %-30s %8s %8s %8s %8s %8s%n", "Module", "Name", "Grades", "Mean", "Min", "Max", "Pass %");
+        modules.forEach(module -> {
+            GradeSummary stats = statsByModule.getOrDefault(module.getKey(), GradeSummary.EMPTY);
+            if (stats.getCount() == 0) {
+                out.printf("%-10s %-30s %8d%n", module.getId(), module.getName(), 0);
+            } else {
+                out.printf("%-10s %-30s %8d %8.2f %8.2f %8.2f %8.1f%n", module.getId(), module.getName(),
+                        stats.getCount(), stats.getMean(), stats.getMin(), stats.getMax(), 100 * stats.getPassRate());
+            }
+        });
+        return report.hasErrors() ? EXIT_DATA_ERRORS : EXIT_OK;
+    }
+
+    // Quantiles from sketches built in parallel, or exact ones from the sorted grades
+    private int distribution(String[] args) throws IOException {
+        GradeDistributions.Grouping grouping = GradeDistributions.Grouping.MODULE;
+        boolean exact = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--exact")) {
+                exact = true;
+            } else {
+                try {
+                    grouping = GradeDistributions.Grouping.valueOf(args[i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    return usage();
+                }
+            }
+        }
+
+        StudentManagementSystem sms = new StudentManagementSystem();
+        LoadReport report = loadDatabase(sms, args[1]);
+        StoreVersion version = sms.getCurrentVersion();
+        Map<String, GradeDistribution> distributions = GradeDistributions.build(version, grouping,
+                ForkJoinPool.commonPool());
+        Map<String, double[]> sortedGrades = exact ? sortedGrades(version, grouping) : null;
+
+        out.printf("%-30s %8s %8s %8s %8s", grouping.name().charAt(0) + grouping.name().substring(1).toLowerCase(),
+                "Grades", "P10", "Median", "P90");
+        for (int bucket = 0; bucket < GradeHistogram.BUCKETS; bucket++) {
+            out.printf(" %7s", GradeHistogram.getLabel(bucket));
+        }
+        out.println();
+        distributions.forEach((group, distribution) -> {
+            double[] quantiles = new double[3];
+            double[] q = { 0.1, 0.5, 0.9 };
+            for (int i = 0; i < q.length; i++) {
+                quantiles[i] = sortedGrades != null ? exactQuantile(sortedGrades.get(group), q[i]) : distribution.getQuantile(q[i]);
+            }
+            out.printf("%-30s %8d %8.2f %8.2f %8.2f", group, distribution.getCount(), quantiles[0], quantiles[1],
+                    quantiles[2]);
+            for (int bucket = 0; bucket < GradeHistogram.BUCKETS; bucket++) {
+                out.printf(" %7d", distribution.getHistogram().getCount(bucket));
+            }
+            out.println();
+        });
+        return report.hasErrors() ? EXIT_DATA_ERRORS : EXIT_OK;
+    }
+
+    // The finite grades of each group, sorted
+    private static Map<String, double[]> sortedGrades(StoreVersion version, GradeDistributions.Grouping grouping) {
+        Map<Integer, String[]> groupsOfModule = new HashMap<>();
+        version.forEachModule(module -> groupsOfModule.put(module.getKey(),
+                GradeDistributions.groupsOf(module, grouping)));
+        Map<String, List<Double>> grades = new HashMap<>();
+        version.forEachGrade(grade -> {
+            if (!Double.isNaN(grade.getGrade()) && !Double.isInfinite(grade.getGrade())) {
+                for (String group : groupsOfModule.get(grade.getModuleKey())) {
+                    grades.computeIfAbsent(group, g -> new ArrayList<>()).add(grade.getGrade());
+                }
+            }
+        });
+        Map<String, double[]> sorted = new HashMap<>();
+        grades.forEach((group, values) -> {
+            double[] array = values.stream().mapToDouble(Double::doubleValue).toArray();
+            Arrays.sort(array);
+            sorted.put(group, array);
+        });
+        return sorted;
+    }
+
+    // Same definition as QuantileSketch, the value at index floor(q * (n - 1))
+    static double exactQuantile(double[] sorted, double q) {
+        if (sorted == null || sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[(int) Math.floor(q * (sorted.length - 1))];
+    }
+
+    // Students not enrolled in and not passed each module, checked for all modules in one parallel pass
+    private int eligible(String[] args) throws IOException {
+        StudentManagementSystem sms = new StudentManagementSystem();
+        LoadReport report = loadDatabase(sms, args[1]);
+
+        List<Module> modules = new ArrayList<>();
+        if (args.length == 2) {
+            modules.addAll(sms.getModules());
+            modules.sort((a, b) -> a.getId().compareTo(b.getId()));
+        } else {
+            for (int i = 2; i < args.length; i++) {
+                Optional<Module> module = sms.getModuleById(args[i]);
+                if (!module.isPresent()) {
+                    err.println("Error: no module " + args[i]);
+                    return EXIT_USAGE;
+                }
+                modules.add(module.get());
+            }
+        }
+
+        Map<Module, List<Student>> eligible = sms.getEligibleStudents(modules);
+        out.println(sms.getStudents().size() + " students");
+        out.printf("%-10s %-30s %8s%n", "Module", "Name", "Eligible");
+        for (Module module : modules) {
+            out.printf("%-10s %-30s %8d%n", module.getId(), module.getName(), eligible.get(module).size());
+        }
+        return report.hasErrors() ? EXIT_DATA_ERRORS : EXIT_OK;
+    }
+
+    // Serves until the process is stopped, the changes are journaled and saved as in the GUI
+    private int serve(String databaseFileName, String portText) throws IOException {
+        requireFile(databaseFileName);
+        Integer port = parsePositive(portText, StudentManagementSystemServer.DEFAULT_PORT);
+        if (port == null || port > 65535) {
+            return usage();
+        }
+
+        StudentManagementSystem sms = new StudentManagementSystem();
+        DatabaseJournal journal = openJournal(sms, databaseFileName);
+        StudentManagementSystemServer server = new StudentManagementSystemServer(sms, journal, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (IOException e) {
+                err.println("Error: the changes could not be saved: " + e.getMessage());
+            }
+        }, "api-shutdown"));
+        server.start();
+        out.println("Serving " + databaseFileName + " on http://localhost:" + server.getPort() + "/");
+        out.flush();
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return EXIT_OK;
+    }
+
+    private int loadTest(String[] args) {
+        Integer port = parsePositive(args[1], null);
+        Integer clients = parsePositive(args.length > 2 ? args[2] : null, 1000);
+        Integer requests = parsePositive(args.length > 3 ? args[3] : null, 20000);
+        if (port == null || clients == null || requests == null) {
+            return usage();
+        }
+        try {
+            int failures = new ApiLoadTest(port, clients, requests).run(out);
+            return failures == 0 ? EXIT_OK : EXIT_IO_ERROR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_IO_ERROR;
+        }
+    }
+
+    private int stressTest(String[] args) {
+        Integer writers = parsePositive(args.length > 1 ? args[1] : null, 4);
+        Integer readers = parsePositive(args.length > 2 ? args[2] : null, 4);
+        Integer seconds = parsePositive(args.length > 3 ? args[3] : null, 10);
+        if (writers == null || readers == null || seconds == null) {
+            return usage();
+        }
+        try {
+            int problems = new ConcurrencyStressTest(writers, readers, seconds).run(out);
+            return problems == 0 ? EXIT_OK : EXIT_DATA_ERRORS;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_IO_ERROR;
+        }
+    }
+
+    private int sketchTest() {
+        return new QuantileSketchTest(42).run(out) == 0 ? EXIT_OK : EXIT_DATA_ERRORS;
+    }
+
+    // Null when the text is not a positive number
+    private static Integer parsePositive(String text, Integer defaultValue) {
+        if (text == null) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(text);
+            return value > 0 ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Loads a .snapshot file, or a CSV file as the GUI and the server see it, with the changes saved to its
+    // journal since. Nothing is written. A file that could not be read to the end is a file error, not bad
+    // lines.
+    private LoadReport loadDatabase(StudentManagementSystem sms, String fileName) throws IOException {
+        requireFile(fileName);
+        if (isSnapshot(fileName)) {
+            DatabaseSnapshot.load(sms, fileName);
+            return new LoadReport(fileName);
+        }
+        LoadReport report = newJournal(sms, fileName).openReadOnly();
+        printErrors(report);
+        return report;
+    }
+
+    private DatabaseJournal openJournal(StudentManagementSystem sms, String csvFileName) throws IOException {
+        DatabaseJournal journal = newJournal(sms, csvFileName);
+        printErrors(journal.open());
+        return journal;
+    }
+
+    // The bad lines and damaged files found while loading, on the error output
+    private void printErrors(LoadReport report) {
+        for (String error : report.getErrors()) {
+            err.println(error);
+        }
+        if (report.getErrorCount() > report.getErrors().size()) {
+            err.println("Too many errors in " + report.getFileName() + ", only the first "
+                    + report.getErrors().size() + " are reported.");
+        }
+        if (report.hasFailed()) {
+            err.println("Error reading " + report.getFileName() + ": " + report.getFailure().getMessage());
+        }
+    }
+
+    // database.csv is journaled to database.snapshot and database.journal, as in the GUI
+    private static DatabaseJournal newJournal(StudentManagementSystem sms, String csvFileName) {
+        String baseName = csvFileName.endsWith(".csv")
+                ? csvFileName.substring(0, csvFileName.length() - ".csv".length())
+                : csvFileName;
+        return new DatabaseJournal(sms, csvFileName, baseName + SNAPSHOT_EXTENSION, baseName + ".journal");
+    }
+
+    private static boolean isSnapshot(String fileName) {
+        return fileName.endsWith(SNAPSHOT_EXTENSION);
+    }
+
+    private static void requireFile(String fileName) throws IOException {
+        if (!new File(fileName).canRead()) {
+            throw new IOException("Cannot read " + fileName);
+        }
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the grade distributions of the application, quantile
+ *              sketches and fixed-bucket histograms that are updated as grades change and
+ *              can be merged, so the median, p10, p90 and histogram of a module, teacher or
+ *              semester are read without sorting its grades.
+ *
+*/
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Quantile sketch with a relative error bound. Values are counted in buckets whose bounds grow by a
+// factor GAMMA = (1 + ALPHA) / (1 - ALPHA), and a quantile is answered from the bucket that holds it. As
+// the counts are exact, the bucket is the one of the exact quantile. Each bucket also sums its values and
+// their squares, and the answer is the mean of the bucket's values when no value in it can be more than
+// ALPHA from that mean, else the middle of the bucket, which is within ALPHA of any value in it. So a
+// bucket holding one value, or the same value many times, gives that value exactly, and always:
+//
+//     |estimate - exact| <= ALPHA * |exact|        for |exact| >= ZERO_THRESHOLD
+//     |estimate - exact| <  ZERO_THRESHOLD         otherwise, those values are counted as 0
+//
+// The exact q quantile of n values is the value at index floor(q * (n - 1)) once they are sorted.
+// Values can be removed as well as added, and two sketches merge by adding their counts, with the same
+// bound. NaN and infinite values are not counted. For grades from 1 to 100 a sketch has about 230 buckets.
+final class QuantileSketch {
+    static final double ALPHA = 0.01;
+    static final double ZERO_THRESHOLD = 1e-6;
+
+    private static final double GAMMA = (1 + ALPHA) / (1 - ALPHA);
+    private static final double MULTIPLIER = 1 / Math.log(GAMMA);
+
+    // Buckets of the positive values and of the magnitudes of the negative values
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+    private long zeroCount;
+    private long count;
+
+    // Counts, sums and sums of squares by bucket index, the arrays cover the indexes seen so far
+    private static final class Buckets {
+        private long[] counts = new long[0];
+        private double[] sums = new double[0];
+        private double[] squares = new double[0];
+        private int offset;
+
+        void add(int index, long count, double sum, double square) {
+            if (counts.length == 0) {
+                resize(8, 0);
+                offset = index;
+            } else if (index < offset) {
+                int grow = Math.max(offset - index, counts.length / 2);
+                resize(counts.length + grow, grow);
+                offset -= grow;
+            } else if (index - offset >= counts.length) {
+                resize(Math.max(index - offset + 1, counts.length * 3 / 2), 0);
+            }
+            int i = index - offset;
+            counts[i] += count;
+            if (counts[i] == 0) {
+                // Drops the rounding left over from the values removed
+                sums[i] = 0;
+                squares[i] = 0;
+            } else {
+                sums[i] += sum;
+                squares[i] += square;
+            }
+        }
+
+        // Copies the buckets to new arrays of the given length, shift places further up
+        private void resize(int length, int shift) {
+            long[] grownCounts = new long[length];
+            double[] grownSums = new double[length];
+            double[] grownSquares = new double[length];
+            System.arraycopy(counts, 0, grownCounts, shift, counts.length);
+            System.arraycopy(sums, 0, grownSums, shift, sums.length);
+            System.arraycopy(squares, 0, grownSquares, shift, squares.length);
+            counts = grownCounts;
+            sums = grownSums;
+            squares = grownSquares;
+        }
+
+        void addAll(Buckets other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i], other.sums[i], other.squares[i]);
+                }
+            }
+        }
+
+        // The mean of the bucket's values when, by Samuelson's inequality, none of them is further from it
+        // than ALPHA times the bucket's lower bound, else the middle of the bucket
+        double estimate(int i) {
+            int index = offset + i;
+            long count = counts[i];
+            double mean = sums[i] / count;
+            double variance = Math.max(0, squares[i] / count - mean * mean);
+            double lowest = StrictMath.pow(GAMMA, index - 1);
+            if (Math.sqrt(variance * (count - 1)) <= ALPHA * lowest && mean > lowest
+                    && mean <= lowest * GAMMA) {
+                return mean;
+            }
+            return valueOf(index);
+        }
+    }
+
+    // StrictMath, so a value always falls in the same bucket and can be removed again
+    private static int indexOf(double magnitude) {
+        return (int) Math.ceil(StrictMath.log(magnitude) * MULTIPLIER);
+    }
+
+    // Middle of the bucket, at most ALPHA away from any value in it relative to the value
+    private static double valueOf(int index) {
+        return 2 * StrictMath.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    public void add(double value) {
+        change(value, 1);
+    }
+
+    public void remove(double value) {
+        change(value, -1);
+    }
+
+    private void change(double value, int delta) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (value >= ZERO_THRESHOLD) {
+            positive.add(indexOf(value), delta, delta * value, delta * value * value);
+        } else if (value <= -ZERO_THRESHOLD) {
+            negative.add(indexOf(-value), delta, -delta * value, delta * value * value);
+        } else {
+            zeroCount += delta;
+        }
+        count += delta;
+    }
+
+    public void merge(QuantileSketch other) {
+        positive.addAll(other.positive);
+        negative.addAll(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch();
+        copy.positive.addAll(positive);
+        copy.negative.addAll(negative);
+        copy.zeroCount = zeroCount;
+        copy.count = count;
+        return copy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // Estimate of the q quantile, q from 0 to 1, NaN when the sketch is empty
+    public double getQuantile(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(q * (count - 1));
+
+        // Negative values first, the largest magnitudes are the lowest values
+        long[] counts = negative.counts;
+        for (int i = counts.length - 1; i >= 0; i--) {
+            rank -= counts[i];
+            if (rank < 0) {
+                return -negative.estimate(i);
+            }
+        }
+        rank -= zeroCount;
+        if (rank < 0) {
+            return 0;
+        }
+        counts = positive.counts;
+        for (int i = 0; i < counts.length; i++) {
+            rank -= counts[i];
+            if (rank < 0) {
+                return positive.estimate(i);
+            }
+        }
+        // Only reached through rounding in q * (count - 1), the highest bucket holds the maximum
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] != 0) {
+                return positive.estimate(i);
+            }
+        }
+        return 0;
+    }
+}
+
+// Exact counts of grades in fixed buckets of BUCKET_WIDTH from LOWEST to HIGHEST. The last bucket also
+// takes HIGHEST itself, and two more buckets take the grades below and above the range. NaN is not counted.
+final class GradeHistogram {
+    static final double LOWEST = 0;
+    static final double HIGHEST = 100;
+    static final double BUCKET_WIDTH = 10;
+
+    // Bucket 0 is below LOWEST, the last bucket is above HIGHEST
+    static final int BUCKETS = (int) ((HIGHEST - LOWEST) / BUCKET_WIDTH) + 2;
+
+    private final long[] counts = new long[BUCKETS];
+
+    static int bucketOf(double value) {
+        if (value < LOWEST) {
+            return 0;
+        }
+        if (value > HIGHEST) {
+            return BUCKETS - 1;
+        }
+        return Math.min(BUCKETS - 2, 1 + (int) ((value - LOWEST) / BUCKET_WIDTH));
+    }
+
+    // "<0", "0-10", ... "90-100", ">100"
+    static String getLabel(int bucket) {
+        if (bucket == 0) {
+            return "<" + format(LOWEST);
+        }
+        if (bucket == BUCKETS - 1) {
+            return ">" + format(HIGHEST);
+        }
+        double low = LOWEST + (bucket - 1) * BUCKET_WIDTH;
+        return format(low) + "-" + format(Math.min(HIGHEST, low + BUCKET_WIDTH));
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    public void add(double value) {
+        if (!Double.isNaN(value)) {
+            counts[bucketOf(value)]++;
+        }
+    }
+
+    public void remove(double value) {
+        if (!Double.isNaN(value)) {
+            counts[bucketOf(value)]--;
+        }
+    }
+
+    public void merge(GradeHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+    }
+
+    public GradeHistogram copy() {
+        GradeHistogram copy = new GradeHistogram();
+        copy.merge(this);
+        return copy;
+    }
+
+    public long getCount(int bucket) {
+        return counts[bucket];
+    }
+}
+
+// Quantile sketch and histogram of a group of grades. The StudentManagementSystem keeps one per module
+// and merges them for teachers and semesters; the copies it hands out no longer change.
+final class GradeDistribution {
+    private final QuantileSketch sketch;
+    private final GradeHistogram histogram;
+
+    public GradeDistribution() {
+        this(new QuantileSketch(), new GradeHistogram());
+    }
+
+    private GradeDistribution(QuantileSketch sketch, GradeHistogram histogram) {
+        this.sketch = sketch;
+        this.histogram = histogram;
+    }
+
+    public void add(double value) {
+        sketch.add(value);
+        histogram.add(value);
+    }
+
+    public void remove(double value) {
+        sketch.remove(value);
+        histogram.remove(value);
+    }
+
+    public void update(double oldValue, double newValue) {
+        remove(oldValue);
+        add(newValue);
+    }
+
+    public void merge(GradeDistribution other) {
+        sketch.merge(other.sketch);
+        histogram.merge(other.histogram);
+    }
+
+    public GradeDistribution copy() {
+        return new GradeDistribution(sketch.copy(), histogram.copy());
+    }
+
+    public long getCount() {
+        return sketch.getCount();
+    }
+
+    // Within QuantileSketch.ALPHA of the exact value, relative to it
+    public double getQuantile(double q) {
+        return sketch.getQuantile(q);
+    }
+
+    public double getMedian() {
+        return sketch.getQuantile(0.5);
+    }
+
+    public GradeHistogram getHistogram() {
+        return histogram;
+    }
+}
+
+// Builds the grade distributions of a version from scratch, in parallel. Each task takes a range of
+// student keys and builds its own distributions, which are then merged. The version does not change,
+// so no lock is needed.
+final class GradeDistributions {
+    enum Grouping {
+        MODULE, TEACHER, SEMESTER
+    }
+
+    private static final int STUDENTS_PER_TASK = 4096;
+
+    private GradeDistributions() {
+    }
+
+    // Distributions by module ID, teacher or semester ("SEM1", "SEM2", ...), sorted by name. A module in
+    // several semesters counts in each of them.
+    public static Map<String, GradeDistribution> build(StoreVersion version, Grouping grouping, ForkJoinPool pool) {
+        // The groups of each module, worked out once
+        Map<Integer, String[]> groupsOfModule = new HashMap<>();
+        version.forEachModule(module -> groupsOfModule.put(module.getKey(), groupsOf(module, grouping)));
+
+        int[] maxStudentKey = { -1 };
+        version.forEachStudent(student -> maxStudentKey[0] = Math.max(maxStudentKey[0], student.getKey()));
+
+        List<ForkJoinTask<Map<String, GradeDistribution>>> tasks = new ArrayList<>();
+        for (int from = 0; from <= maxStudentKey[0]; from += STUDENTS_PER_TASK) {
+            int start = from;
+            int end = from + STUDENTS_PER_TASK;
+            tasks.add(pool.submit(() -> {
+                Map<String, GradeDistribution> distributions = new HashMap<>();
+                version.visitGrades(start, 0, (key, grade) -> {
+                    if (grade.getStudentKey() >= end) {
+                        return false;
+                    }
+                    for (String group : groupsOfModule.get(grade.getModuleKey())) {
+                        distributions.computeIfAbsent(group, g -> new GradeDistribution()).add(grade.getGrade());
+                    }
+                    return true;
+                });
+                return distributions;
+            }));
+        }
+
+        Map<String, GradeDistribution> merged = new TreeMap<>();
+        for (ForkJoinTask<Map<String, GradeDistribution>> task : tasks) {
+            task.join().forEach((group, distribution) -> merged.merge(group, distribution, (a, b) -> {
+                a.merge(b);
+                return a;
+            }));
+        }
+        return merged;
+    }
+
+    static String[] groupsOf(ModuleRecord module, Grouping grouping) {
+        switch (grouping) {
+            case MODULE:
+                return new String[] { module.getId() };
+            case TEACHER:
+                return new String[] { module.getTeacher() == null ? "" : module.getTeacher() };
+            default:
+                List<String> semesters = new ArrayList<>();
+                Semesters.parse(module.getSemester()).forEach(semester -> semesters.add("SEM" + semester));
+                return semesters.toArray(new String[0]);
+        }
+    }
+}
+
+// Accuracy test of QuantileSketch against the exact quantiles of the sorted values, for several
+// distributions of grades and beyond, from one value to many. Every quantile from 0 to 1 in steps of 0.01
+// must be within the bound documented on QuantileSketch: after adding the values, after merging sketches
+// of parts of them, and after removing half of them again. Returns the number of failed checks.
+class QuantileSketchTest {
+    private static final int[] SIZES = { 1, 2, 3, 10, 100, 10_000, 200_000 };
+    private static final String[] DISTRIBUTIONS = { "constant", "uniform", "normal", "bimodal", "skewed",
+            "signed", "tiny" };
+
+    private final Random random;
+    private int failures;
+    private PrintWriter out;
+
+    public QuantileSketchTest(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public int run(PrintWriter out) {
+        this.out = out;
+        out.printf("%-10s %8s %12s %12s %12s%n", "Values", "Count", "Added", "Merged", "Removed");
+        for (String distribution : DISTRIBUTIONS) {
+            for (int size : SIZES) {
+                double[] values = new double[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = next(distribution);
+                }
+                check(distribution, values);
+            }
+        }
+        out.println(failures == 0 ? "All quantiles within " + QuantileSketch.ALPHA + " of the exact values"
+                : failures + " quantiles out of bounds");
+        return failures;
+    }
+
+    // Grades rounded to 0.1 as the GUI takes them, except for the signed and tiny values
+    private double next(String distribution) {
+        switch (distribution) {
+            case "constant":
+                return 99.2;
+            case "uniform":
+                return grade(random.nextDouble() * 100);
+            case "normal":
+                return grade(60 + 15 * random.nextGaussian());
+            case "bimodal":
+                return grade(random.nextBoolean() ? 30 + 8 * random.nextGaussian() : 80 + 5 * random.nextGaussian());
+            case "skewed":
+                return grade(-10 * Math.log(1 - random.nextDouble()));
+            case "signed":
+                return random.nextInt(10) == 0 ? 0 : 50 * random.nextGaussian();
+            default:
+                return random.nextGaussian() * QuantileSketch.ZERO_THRESHOLD * 10;
+        }
+    }
+
+    private static double grade(double value) {
+        return Math.round(Math.max(0, Math.min(100, value)) * 10) / 10.0;
+    }
+
+    private void check(String distribution, double[] values) {
+        QuantileSketch whole = new QuantileSketch();
+        QuantileSketch[] parts = { new QuantileSketch(), new QuantileSketch(), new QuantileSketch() };
+        for (double value : values) {
+            whole.add(value);
+            parts[random.nextInt(parts.length)].add(value);
+        }
+        QuantileSketch merged = new QuantileSketch();
+        for (QuantileSketch part : parts) {
+            merged.merge(part);
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        double added = worstError(distribution + " added", whole, sorted);
+        double mergedError = worstError(distribution + " merged", merged, sorted);
+
+        // The second half goes again, in a shuffled order
+        double[] kept = Arrays.copyOf(values, (values.length + 1) / 2);
+        List<Double> removed = new ArrayList<>();
+        for (int i = kept.length; i < values.length; i++) {
+            removed.add(values[i]);
+        }
+        Collections.shuffle(removed, random);
+        removed.forEach(whole::remove);
+        Arrays.sort(kept);
+        double removedError = worstError(distribution + " removed", whole, kept);
+
+        out.printf("%-10s %8d %11.4f%% %11.4f%% %11.4f%%%n", distribution, values.length, 100 * added,
+                100 * mergedError, 100 * removedError);
+    }
+
+    // Largest error relative to the exact value, every quantile out of bounds is reported
+    private double worstError(String name, QuantileSketch sketch, double[] sorted) {
+        double worst = 0;
+        for (int percent = 0; percent <= 100; percent++) {
+            double q = percent / 100.0;
+            double exact = StudentManagementSystemCli.exactQuantile(sorted, q);
+            double estimate = sketch.getQuantile(q);
+            double error = Math.abs(estimate - exact);
+            boolean inBounds;
+            if (Math.abs(exact) >= QuantileSketch.ZERO_THRESHOLD) {
+                // A little more than ALPHA for the rounding of the bucket bounds
+                inBounds = error <= QuantileSketch.ALPHA * Math.abs(exact) * (1 + 1e-9);
+                worst = Math.max(worst, error / Math.abs(exact));
+            } else {
+                inBounds = error < QuantileSketch.ZERO_THRESHOLD;
+            }
+            if (!inBounds) {
+                failures++;
+                out.println("Out of bounds: " + name + " of " + sorted.length + " values, q " + q + ", estimate "
+                        + estimate + ", exact " + exact);
+            }
+        }
+        return worst;
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the enrollment store of the StudentManagementSystem.
+ *              There is one record for each (student, module) pair that is enrolled or
+ *              graded, with its enrollment, first grade and number of attempts, kept as
+ *              columns of ints rather than as sets on both the student and the module.
+ *
+*/
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+// Columnar store of the (student, module) pair records. Each record holds whether the student is enrolled
+// in the module, the slot of the pair's first grade in the GradeStore and the number of grades of the pair,
+// the attempts. A record is removed once the pair is neither enrolled nor graded, and its slot is reused.
+// Not thread safe, the StudentManagementSystem guards it with its lock.
+final class EnrollmentStore {
+    static final int NONE = -1;
+
+    // The high bit of a record's state is set while enrolled, the rest counts the attempts
+    private static final int ENROLLED = 1 << 31;
+    private static final int ATTEMPTS = ~ENROLLED;
+
+    // Columns by slot. Free slots are chained through nextOfStudent and have a student key of NONE.
+    private int[] studentKeys = new int[16];
+    private int[] moduleKeys = new int[16];
+    private int[] firstGrades = new int[16];
+    private int[] states = new int[16];
+
+    // Each student's and each module's records are doubly chained, in the order they were created, so a
+    // record is unlinked without walking its chains
+    private int[] nextOfStudent = new int[16];
+    private int[] prevOfStudent = new int[16];
+    private int[] firstOfStudent = new int[0];
+    private int[] lastOfStudent = new int[0];
+    private int[] nextOfModule = new int[16];
+    private int[] prevOfModule = new int[16];
+    private int[] firstOfModule = new int[0];
+    private int[] lastOfModule = new int[0];
+
+    private int slotCount;
+    private int freeSlot = NONE;
+    private int size;
+    private int enrolledCount;
+
+    // Open addressing index from a (student key, module key) pair to its record, with linear probing.
+    // Holds slots, NONE marks an empty entry.
+    private int[] pairIndex = emptyIndex(64);
+
+    private static int[] emptyIndex(int capacity) {
+        int[] index = new int[capacity];
+        Arrays.fill(index, NONE);
+        return index;
+    }
+
+    // Number of records, and of those that are enrolled
+    int size() {
+        return size;
+    }
+
+    int getEnrolledCount() {
+        return enrolledCount;
+    }
+
+    int getStudentKey(int slot) {
+        return studentKeys[slot];
+    }
+
+    int getModuleKey(int slot) {
+        return moduleKeys[slot];
+    }
+
+    boolean isEnrolled(int slot) {
+        return (states[slot] & ENROLLED) != 0;
+    }
+
+    // Slot of the pair's first grade in the GradeStore, GradeStore.NONE when it has no grade
+    int getFirstGrade(int slot) {
+        return firstGrades[slot];
+    }
+
+    int getAttempts(int slot) {
+        return states[slot] & ATTEMPTS;
+    }
+
+    // Record of the pair, or NONE
+    int find(int studentKey, int moduleKey) {
+        int entry = findIndexEntry(studentKey, moduleKey);
+        return entry >= 0 ? pairIndex[entry] : NONE;
+    }
+
+    boolean isEnrolled(int studentKey, int moduleKey) {
+        int slot = find(studentKey, moduleKey);
+        return slot != NONE && isEnrolled(slot);
+    }
+
+    // Returns false when the student was already enrolled
+    boolean enroll(int studentKey, int moduleKey) {
+        int slot = findOrAdd(studentKey, moduleKey);
+        if (isEnrolled(slot)) {
+            return false;
+        }
+        states[slot] |= ENROLLED;
+        enrolledCount++;
+        return true;
+    }
+
+    // Returns false when the student was not enrolled
+    boolean unenroll(int studentKey, int moduleKey) {
+        int slot = find(studentKey, moduleKey);
+        if (slot == NONE || !isEnrolled(slot)) {
+            return false;
+        }
+        states[slot] &= ~ENROLLED;
+        enrolledCount--;
+        if (getAttempts(slot) == 0) {
+            remove(slot);
+        }
+        return true;
+    }
+
+    void gradeAdded(int studentKey, int moduleKey, int gradeSlot) {
+        int slot = findOrAdd(studentKey, moduleKey);
+        if (firstGrades[slot] == GradeStore.NONE) {
+            firstGrades[slot] = gradeSlot;
+        }
+        states[slot]++;
+    }
+
+    // The next first grade is only asked for when the removed grade was the first one
+    void gradeRemoved(int studentKey, int moduleKey, int gradeSlot, IntSupplier nextFirstGrade) {
+        int slot = find(studentKey, moduleKey);
+        states[slot]--;
+        if (getAttempts(slot) == 0 && !isEnrolled(slot)) {
+            remove(slot);
+        } else if (firstGrades[slot] == gradeSlot) {
+            firstGrades[slot] = nextFirstGrade.getAsInt();
+        }
+    }
+
+    // Records of one student in the order they were created
+    void forEachOfStudent(int studentKey, IntConsumer action) {
+        if (studentKey < 0 || studentKey >= firstOfStudent.length) {
+            return;
+        }
+        for (int s = firstOfStudent[studentKey]; s != NONE; s = nextOfStudent[s]) {
+            action.accept(s);
+        }
+    }
+
+    // Records of one module in the order they were created
+    void forEachOfModule(int moduleKey, IntConsumer action) {
+        if (moduleKey < 0 || moduleKey >= firstOfModule.length) {
+            return;
+        }
+        for (int s = firstOfModule[moduleKey]; s != NONE; s = nextOfModule[s]) {
+            action.accept(s);
+        }
+    }
+
+    // Keys of the modules a student is enrolled in, in the order the records were created
+    int[] enrolledModuleKeys(int studentKey) {
+        int count = 0;
+        int[] keys = new int[4];
+        if (studentKey >= 0 && studentKey < firstOfStudent.length) {
+            for (int s = firstOfStudent[studentKey]; s != NONE; s = nextOfStudent[s]) {
+                if (isEnrolled(s)) {
+                    if (count == keys.length) {
+                        keys = Arrays.copyOf(keys, count * 2);
+                    }
+                    keys[count++] = moduleKeys[s];
+                }
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    // Keys of the students enrolled in a module, in the order the records were created
+    int[] enrolledStudentKeys(int moduleKey) {
+        int count = 0;
+        int[] keys = new int[16];
+        if (moduleKey >= 0 && moduleKey < firstOfModule.length) {
+            for (int s = firstOfModule[moduleKey]; s != NONE; s = nextOfModule[s]) {
+                if (isEnrolled(s)) {
+                    if (count == keys.length) {
+                        keys = Arrays.copyOf(keys, count * 2);
+                    }
+                    keys[count++] = studentKeys[s];
+                }
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    // Drops the spare capacity of the columns, called after a load
+    void trimToSize() {
+        studentKeys = Arrays.copyOf(studentKeys, slotCount);
+        moduleKeys = Arrays.copyOf(moduleKeys, slotCount);
+        firstGrades = Arrays.copyOf(firstGrades, slotCount);
+        states = Arrays.copyOf(states, slotCount);
+        nextOfStudent = Arrays.copyOf(nextOfStudent, slotCount);
+        prevOfStudent = Arrays.copyOf(prevOfStudent, slotCount);
+        nextOfModule = Arrays.copyOf(nextOfModule, slotCount);
+        prevOfModule = Arrays.copyOf(prevOfModule, slotCount);
+    }
+
+    private int findOrAdd(int studentKey, int moduleKey) {
+        int slot = find(studentKey, moduleKey);
+        return slot != NONE ? slot : add(studentKey, moduleKey);
+    }
+
+    private int add(int studentKey, int moduleKey) {
+        int slot;
+        if (freeSlot != NONE) {
+            slot = freeSlot;
+            freeSlot = nextOfStudent[slot];
+        } else {
+            if (slotCount == studentKeys.length) {
+                int length = slotCount * 3 / 2 + 16;
+                studentKeys = Arrays.copyOf(studentKeys, length);
+                moduleKeys = Arrays.copyOf(moduleKeys, length);
+                firstGrades = Arrays.copyOf(firstGrades, length);
+                states = Arrays.copyOf(states, length);
+                nextOfStudent = Arrays.copyOf(nextOfStudent, length);
+                prevOfStudent = Arrays.copyOf(prevOfStudent, length);
+                nextOfModule = Arrays.copyOf(nextOfModule, length);
+                prevOfModule = Arrays.copyOf(prevOfModule, length);
+            }
+            slot = slotCount++;
+        }
+        studentKeys[slot] = studentKey;
+        moduleKeys[slot] = moduleKey;
+        firstGrades[slot] = GradeStore.NONE;
+        states[slot] = 0;
+        nextOfStudent[slot] = NONE;
+        nextOfModule[slot] = NONE;
+
+        // Appended to the student's chain and the module's chain
+        if (studentKey >= firstOfStudent.length) {
+            int length = Math.max(studentKey + 1, firstOfStudent.length * 3 / 2 + 16);
+            firstOfStudent = grownChainHeads(firstOfStudent, length);
+            lastOfStudent = grownChainHeads(lastOfStudent, length);
+        }
+        if (lastOfStudent[studentKey] == NONE) {
+            firstOfStudent[studentKey] = slot;
+        } else {
+            nextOfStudent[lastOfStudent[studentKey]] = slot;
+        }
+        prevOfStudent[slot] = lastOfStudent[studentKey];
+        lastOfStudent[studentKey] = slot;
+
+        if (moduleKey >= firstOfModule.length) {
+            int length = Math.max(moduleKey + 1, firstOfModule.length * 3 / 2 + 16);
+            firstOfModule = grownChainHeads(firstOfModule, length);
+            lastOfModule = grownChainHeads(lastOfModule, length);
+        }
+        if (lastOfModule[moduleKey] == NONE) {
+            firstOfModule[moduleKey] = slot;
+        } else {
+            nextOfModule[lastOfModule[moduleKey]] = slot;
+        }
+        prevOfModule[slot] = lastOfModule[moduleKey];
+        lastOfModule[moduleKey] = slot;
+
+        insertIndexEntry(slot);
+        size++;
+        return slot;
+    }
+
+    private static int[] grownChainHeads(int[] heads, int length) {
+        int old = heads.length;
+        heads = Arrays.copyOf(heads, length);
+        Arrays.fill(heads, old, length, NONE);
+        return heads;
+    }
+
+    private void remove(int slot) {
+        int studentKey = studentKeys[slot];
+        int moduleKey = moduleKeys[slot];
+        int previous = prevOfStudent[slot];
+        int next = nextOfStudent[slot];
+        if (previous == NONE) {
+            firstOfStudent[studentKey] = next;
+        } else {
+            nextOfStudent[previous] = next;
+        }
+        if (next == NONE) {
+            lastOfStudent[studentKey] = previous;
+        } else {
+            prevOfStudent[next] = previous;
+        }
+
+        previous = prevOfModule[slot];
+        next = nextOfModule[slot];
+        if (previous == NONE) {
+            firstOfModule[moduleKey] = next;
+        } else {
+            nextOfModule[previous] = next;
+        }
+        if (next == NONE) {
+            lastOfModule[moduleKey] = previous;
+        } else {
+            prevOfModule[next] = previous;
+        }
+        deleteIndexEntry(findIndexEntry(studentKey, moduleKey));
+
+        studentKeys[slot] = NONE;
+        nextOfStudent[slot] = freeSlot;
+        freeSlot = slot;
+        size--;
+    }
+
+    // Pair index, as in GradeStore
+
+    private static int hash(int studentKey, int moduleKey) {
+        long h = ((long) studentKey << 32 | (moduleKey & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    private int findIndexEntry(int studentKey, int moduleKey) {
+        int mask = pairIndex.length - 1;
+        for (int i = hash(studentKey, moduleKey) & mask;; i = (i + 1) & mask) {
+            int slot = pairIndex[i];
+            if (slot == NONE) {
+                return -1;
+            }
+            if (studentKeys[slot] == studentKey && moduleKeys[slot] == moduleKey) {
+                return i;
+            }
+        }
+    }
+
+    private void insertIndexEntry(int slot) {
+        // Kept at most three quarters full so probe runs stay short
+        if ((size + 1) * 4L > pairIndex.length * 3L) {
+            int[] old = pairIndex;
+            pairIndex = emptyIndex(old.length * 2);
+            for (int entry : old) {
+                if (entry != NONE) {
+                    placeIndexEntry(entry);
+                }
+            }
+        }
+        placeIndexEntry(slot);
+    }
+
+    private void placeIndexEntry(int slot) {
+        int mask = pairIndex.length - 1;
+        int i = hash(studentKeys[slot], moduleKeys[slot]) & mask;
+        while (pairIndex[i] != NONE) {
+            i = (i + 1) & mask;
+        }
+        pairIndex[i] = slot;
+    }
+
+    // Backward shift deletion, so no tombstones are left behind
+    private void deleteIndexEntry(int entry) {
+        int mask = pairIndex.length - 1;
+        int hole = entry;
+        for (int i = (entry + 1) & mask; pairIndex[i] != NONE; i = (i + 1) & mask) {
+            int slot = pairIndex[i];
+            int home = hash(studentKeys[slot], moduleKeys[slot]) & mask;
+            // Move the entry into the hole unless its home lies cyclically in (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                pairIndex[hole] = slot;
+                hole = i;
+            }
+        }
+        pairIndex[hole] = NONE;
+    }
+}
+
+// A (student, module) pair as it was when read: whether the student is enrolled, the pair's first grade
+// and the number of grades, the attempts
+final class EnrollmentRecord {
+    private final Student student;
+    private final Module module;
+    private final boolean enrolled;
+    private final Grade grade;
+    private final int attempts;
+
+    EnrollmentRecord(Student student, Module module, boolean enrolled, Grade grade, int attempts) {
+        this.student = student;
+        this.module = module;
+        this.enrolled = enrolled;
+        this.grade = grade;
+        this.attempts = attempts;
+    }
+
+    public Student getStudent() {
+        return student;
+    }
+
+    public Module getModule() {
+        return module;
+    }
+
+    public boolean isEnrolled() {
+        return enrolled;
+    }
+
+    // First grade of the pair, null when it has none
+    public Grade getGrade() {
+        return grade;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    // Same status as the Dashboard tab
+    public String getStatus() {
+        return DashboardRow.getStatus(grade == null ? null : grade.getGrade(), enrolled);
+    }
+}
@@ -13,116 +13,75 @@ import javax.swing.border.TitledBorder;
 import javax.swing.table.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.PatternSyntaxException;
 
 public class StudentManagementSystemGUI {
 
+    private static final String DATABASE_FILE = "database.csv";
+    private static final String SNAPSHOT_FILE = "database.snapshot";
+    private static final String JOURNAL_FILE = "database.journal";
+    private static final long AUTOSAVE_SECONDS = 30;
+
     // Create GUI components
     private final StudentManagementSystem sms;
+    private final DatabaseJournal database;
+    private final PersistenceService persistence;
     private final JFrame frame;
+    private final JLabel saveStatusLabel = new JLabel(" ");
+    private final JProgressBar saveProgressBar = new JProgressBar();
     private final JTable dataDisplayDashboard;
     private final JTable dataDisplayStudent;
     private final JTable dataDisplayModule;
     private final JTable dataDisplayGrade;
+    private final JTable dataDisplayStats;
     private Student currentStudent;
 
     // StudentManagementSystemGUI constructor method
     public StudentManagementSystemGUI() {
         sms = new StudentManagementSystem();
+        database = new DatabaseJournal(sms, DATABASE_FILE, SNAPSHOT_FILE, JOURNAL_FILE);
         frame = createMainFrame();
 
-        // Create table models
-        DefaultTableModel dashboardTableModel = createDashboardTableModel();
-        DefaultTableModel studentTableModel = createStudentTableModel();
-        DefaultTableModel moduleTableModel = createModuleTableModel();
-        DefaultTableModel gradeTableModel = createGradeTableModel();
+        // Create table models, they follow the changes to sms from here on
+        TableModel dashboardTableModel = new DashboardTableModel(sms);
+        TableModel studentTableModel = new StudentTableModel(sms);
+        TableModel moduleTableModel = new ModuleTableModel(sms);
+        TableModel gradeTableModel = new GradeTableModel(sms);
+        TableModel statsTableModel = new ModuleStatsTableModel(sms);
 
         // Create tables
         dataDisplayDashboard = createTable(dashboardTableModel);
         dataDisplayStudent = createTable(studentTableModel);
         dataDisplayModule = createTable(moduleTableModel);
         dataDisplayGrade = createTable(gradeTableModel);
+        dataDisplayStats = createTable(statsTableModel);
 
         // Set the custom GradeColorRenderer for the dashboard table
         dataDisplayDashboard.setDefaultRenderer(Object.class, new GradeColorRenderer(3));
         setupGUI();
 
         // Load data from file when the program starts up
-        sms.loadFromFile("database.csv");
-        updateDataDisplays();
-    }
-
-    // Create a table models
-    private DefaultTableModel createDashboardTableModel() {
-        String[] columnNames = { "Student", "Module", "Grade", "Status", "Enrolled" };
-        DefaultTableModel model = new DefaultTableModel(columnNames, 0);
-
-        // Loop through all students and modules to find the status of each module for
-        // each student
-        for (Student student : sms.getStudents()) {
-            for (Module module : sms.getModules()) {
-                String status;
-                boolean enrolled = student.getEnrolledModules().contains(module);
-                Optional<Grade> gradeOpt = sms.findGrade(student, module);
-
-                if (enrolled) {
-                    if (gradeOpt.isPresent()) {
-                        double gradeValue = gradeOpt.get().getGrade();
-                        if (gradeValue >= 40) {
-                            status = "Pass";
-                        } else {
-                            status = "Fail";
-                        }
-                    } else {
-                        status = "In Progress";
-                    }
-                } else {
-                    if (gradeOpt.isPresent()) {
-                        double gradeValue = gradeOpt.get().getGrade();
-                        if (gradeValue >= 40) {
-                            status = "Completed";
-                        } else {
-                            status = "To Repeat";
-                        }
-                    } else {
-                        continue;
-                    }
-                }
+        loadFromFile();
 
-                Object[] rowData = { student.getName(), module.getName(), gradeOpt.map(Grade::getGrade).orElse(null),
-                        status, enrolled ? "Yes" : "No" };
-                model.addRow(rowData);
+        // Saves are written in the background, edits are autosaved every AUTOSAVE_SECONDS
+        persistence = new PersistenceService(database, SwingUtilities::invokeLater, AUTOSAVE_SECONDS);
+        persistence.addListener(new PersistenceService.Listener() {
+            @Override
+            public void saveStarted(boolean compaction) {
+                SwingUtilities.invokeLater(() -> showSaveStarted(compaction));
             }
-        }
-        return model;
-    }
-
-    private DefaultTableModel createStudentTableModel() {
-        String[] columnNames = { "Student ID", "Name", "Email" };
-        DefaultTableModel model = new DefaultTableModel(columnNames, 0);
-        sms.getStudents().forEach(
-                student -> model.addRow(new Object[] { student.getId(), student.getName(), student.getEmail() }));
-        return model;
-    }
 
-    private DefaultTableModel createModuleTableModel() {
-        String[] columnNames = { "Module ID", "Name", "Teacher", "Semester" };
-        DefaultTableModel model = new DefaultTableModel(columnNames, 0);
-        sms.getModules().forEach(
-                module -> model.addRow(
-                        new Object[] { module.getId(), module.getName(), module.getTeacher(), module.getSemester() }));
-        return model;
-    }
-
-    private DefaultTableModel createGradeTableModel() {
-        String[] columnNames = { "Student ID", "Module ID", "Grade" };
-        DefaultTableModel model = new DefaultTableModel(columnNames, 0);
-        sms.getGrades().forEach(grade -> model
-                .addRow(new Object[] { grade.getStudent().getId(), grade.getModule().getId(), grade.getGrade() }));
-        return model;
+            @Override
+            public void saveFinished(IOException error) {
+                SwingUtilities.invokeLater(() -> showSaveFinished(error));
+            }
+        });
     }
 
     // Create main frame for GUI
@@ -138,10 +97,14 @@ public class StudentManagementSystemGUI {
                 int result = JOptionPane.showConfirmDialog(mainFrame, "Do you want to save data before exiting?",
                         "Save data?", JOptionPane.YES_NO_CANCEL_OPTION);
                 if (result == JOptionPane.YES_OPTION) {
-                    sms.saveToFile("database.csv");
-                    JOptionPane.showMessageDialog(mainFrame, "Data saved successfully.");
-                    System.exit(0);
+                    if (saveDatabase()) {
+                        closeDatabase();
+                        System.exit(0);
+                    }
+                    mainFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
                 } else if (result == JOptionPane.NO_OPTION) {
+                    // Only waits for a save that is already being written
+                    closeDatabase();
                     System.exit(0);
                 } else {
                     mainFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
@@ -181,13 +144,42 @@ public class StudentManagementSystemGUI {
         JPanel enrollmentPanel = createEnrollmentPanel();
         tabbedPane.addTab("Enrollment", enrollmentPanel);
 
+        // Statistics
+        JPanel statsPanel = createStatsPanel();
+        tabbedPane.addTab("Statistics", statsPanel);
+
         frame.add(tabbedPane);
+        frame.add(createStatusBar(), BorderLayout.SOUTH);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setVisible(true);
     }
 
+    // Status bar showing the background saves
+    private JPanel createStatusBar() {
+        JPanel panel = new JPanel(new BorderLayout());
+        saveProgressBar.setIndeterminate(true);
+        saveProgressBar.setVisible(false);
+        panel.add(saveStatusLabel, BorderLayout.CENTER);
+        panel.add(saveProgressBar, BorderLayout.EAST);
+        return panel;
+    }
+
+    private void showSaveStarted(boolean compaction) {
+        saveStatusLabel.setText(compaction ? "Saving all data..." : "Saving changes...");
+        saveProgressBar.setVisible(true);
+    }
+
+    private void showSaveFinished(IOException error) {
+        saveProgressBar.setVisible(false);
+        if (error == null) {
+            saveStatusLabel.setText("Saved at " + LocalTime.now().withNano(0));
+        } else {
+            saveStatusLabel.setText("Save failed: " + error.getMessage());
+        }
+    }
+
     // Create a table model for the dashboard
-    private JTable createTable(DefaultTableModel tableModel) {
+    private JTable createTable(TableModel tableModel) {
         JTable table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.setDefaultEditor(Object.class, null);
@@ -315,6 +307,20 @@ public class StudentManagementSystemGUI {
         return panel;
     }
 
+    private JPanel createStatsPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(new JScrollPane(dataDisplayStats));
+
+        // Create a JPanel for the student statistics button
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(createButton("Student Statistics", this::showStudentStats));
+
+        panel.add(buttonPanel, BorderLayout.SOUTH);
+
+        dataDisplayStats.setDefaultRenderer(Object.class, new CustomTableCellRenderer(new Color(219, 235, 241)));
+        return panel;
+    }
+
     private JPanel createEnrollmentPanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
@@ -324,6 +330,7 @@ public class StudentManagementSystemGUI {
 
         JPanel inputPanel = new JPanel(new FlowLayout());
         JTextField studentIdSearchField = new JTextField(20);
+        TypeAhead.forStudents(studentIdSearchField, sms);
         inputPanel.add(studentIdSearchField);
 
         JButton searchButton = new JButton("Search");
@@ -376,10 +383,7 @@ public class StudentManagementSystemGUI {
             Optional<Student> studentOpt = sms.getStudentById(studentId);
             if (studentOpt.isPresent()) {
                 currentStudent = studentOpt.get();
-                long completedModulesCount = currentStudent.getEnrolledModules().stream()
-                        .filter(Module::isCompleted)
-                        .filter(Module::isPassed)
-                        .count();
+                int completedModulesCount = currentStudent.getProgress().getPassedCount();
                 studentInfoLabel
                         .setText(currentStudent.getName() + " - " + currentStudent.getEmail()
                                 + " - Completed and Passed Modules: "
@@ -388,7 +392,7 @@ public class StudentManagementSystemGUI {
                 studentInfoLabel.setText("Student not found.");
                 currentStudent = null;
             }
-            String[] semIdentifiers = getCurrentSemesterIdentifier(firstYearButton, secondYearButton, thirdYearButton);
+            int[] semIdentifiers = getCurrentSemesterIdentifier(firstYearButton, secondYearButton, thirdYearButton);
             updateModulesTable(sem1ScrollPane, sem2ScrollPane, semIdentifiers[0], semIdentifiers[1]);
         });
 
@@ -398,32 +402,37 @@ public class StudentManagementSystemGUI {
             String studentId = studentIdSearchField.getText();
             Optional<Student> studentOpt = sms.getStudentById(studentId);
             if (studentOpt.isPresent()) {
-                updateEnrollment(sem1ScrollPane, studentId);
-                updateEnrollment(sem2ScrollPane, studentId);
-                updateDataDisplays();
+                // Both semesters are applied at once, with a single message
+                List<EnrollmentChange> changes = new ArrayList<>();
+                collectEnrollmentChanges(sem1ScrollPane, studentOpt.get(), changes);
+                collectEnrollmentChanges(sem2ScrollPane, studentOpt.get(), changes);
+                int changed = sms.applyEnrollmentChanges(changes);
+                JOptionPane.showMessageDialog(frame, changed + " enrollment(s) updated.");
+            } else {
+                JOptionPane.showMessageDialog(frame, "Student not found.");
             }
         });
 
         panel.add(updateButton, BorderLayout.SOUTH);
 
         firstYearButton.addActionListener(e -> {
-            String[] semIdentifiers = getCurrentSemesterIdentifier(firstYearButton, secondYearButton, thirdYearButton);
+            int[] semIdentifiers = getCurrentSemesterIdentifier(firstYearButton, secondYearButton, thirdYearButton);
             updateModulesTable(sem1ScrollPane, sem2ScrollPane, semIdentifiers[0], semIdentifiers[1]);
         });
 
         secondYearButton.addActionListener(e -> {
-            String[] semIdentifiers = getCurrentSemesterIdentifier(firstYearButton, secondYearButton, thirdYearButton);
+            int[] semIdentifiers = getCurrentSemesterIdentifier(firstYearButton, secondYearButton, thirdYearButton);
             updateModulesTable(sem1ScrollPane, sem2ScrollPane, semIdentifiers[0], semIdentifiers[1]);
         });
 
         thirdYearButton.addActionListener(e -> {
-            String[] semIdentifiers = getCurrentSemesterIdentifier(firstYearButton, secondYearButton, thirdYearButton);
+            int[] semIdentifiers = getCurrentSemesterIdentifier(firstYearButton, secondYearButton, thirdYearButton);
             updateModulesTable(sem1ScrollPane, sem2ScrollPane, semIdentifiers[0], semIdentifiers[1]);
         });
 
         firstYearButton.setSelected(true);
         SwingUtilities.invokeLater(() -> {
-            updateModulesTable(sem1ScrollPane, sem2ScrollPane, "SEM1", "SEM2");
+            updateModulesTable(sem1ScrollPane, sem2ScrollPane, 1, 2);
         });
 
         return panel;
@@ -437,8 +446,7 @@ public class StudentManagementSystemGUI {
         for (Module module : modules) {
             data[i][0] = module.getId();
             data[i][1] = module.getName();
-            data[i][2] = student != null && student.getEnrolledModules().stream()
-                    .anyMatch(enrolledModule -> enrolledModule.getId().equalsIgnoreCase(module.getId()));
+            data[i][2] = student != null && sms.isEnrolled(student, module);
             i++;
         }
 
@@ -450,25 +458,24 @@ public class StudentManagementSystemGUI {
         return table;
     }
 
-    private String[] getCurrentSemesterIdentifier(JRadioButton firstYearButton, JRadioButton secondYearButton,
+    // The two semesters of the selected year, e.g. 3 and 4 for the second year
+    private int[] getCurrentSemesterIdentifier(JRadioButton firstYearButton, JRadioButton secondYearButton,
             JRadioButton thirdYearButton) {
         if (firstYearButton.isSelected()) {
-            return new String[] { "SEM1", "SEM2" };
+            return new int[] { 1, 2 };
         } else if (secondYearButton.isSelected()) {
-            return new String[] { "SEM3", "SEM4" };
+            return new int[] { 3, 4 };
         } else {
-            return new String[] { "SEM5", "SEM6" };
+            return new int[] { 5, 6 };
         }
     }
-    
-    private List<Module> getSemesterModules(String semesterIdentifier) {
-        return sms.getModules().stream()
-                .filter(module -> module.getSemester().toUpperCase().contains(semesterIdentifier.toUpperCase()))
-                .collect(Collectors.toList());
+
+    private List<Module> getSemesterModules(int semester) {
+        return sms.getModulesInSemester(semester);
     }
 
     private void updateModulesTable(JScrollPane sem1ScrollPane, JScrollPane sem2ScrollPane,
-            String sem1Identifier, String sem2Identifier) {
+            int sem1Identifier, int sem2Identifier) {
         List<Module> sem1Modules = getSemesterModules(sem1Identifier);
         List<Module> sem2Modules = getSemesterModules(sem2Identifier);
 
@@ -519,18 +526,59 @@ public class StudentManagementSystemGUI {
         return button;
     }
 
+    // Filter a table, keeping its sort order. The table keeps the same model, so the filter stays
+    // applied while the data changes. Contains and Starts with use the search indexes of the
+    // StudentManagementSystem, Regex matches every cell as before.
+    @SuppressWarnings("unchecked")
+    private void filterTable(JTable table) {
+        JPanel inputPanel = new JPanel(new GridLayout(2, 2));
+        JTextField filterField = new JTextField();
+        JComboBox<String> modeBox = new JComboBox<>(new String[] { "Contains", "Starts with", "Regex" });
+
+        inputPanel.add(new JLabel("Type to filter:"));
+        inputPanel.add(filterField);
+        inputPanel.add(new JLabel("Match:"));
+        inputPanel.add(modeBox);
+
+        int result = JOptionPane.showOptionDialog(frame, inputPanel, "Filter", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE, null, null, null);
+        String filter = filterField.getText();
+        if (result != JOptionPane.OK_OPTION || filter.isEmpty()) {
+            return;
+        }
+
+        TableRowSorter<TableModel> sorter = (TableRowSorter<TableModel>) table.getRowSorter();
+        switch (modeBox.getSelectedIndex()) {
+            case 0:
+                sorter.setRowFilter(new SearchRowFilter(sms, (LiveTableModel<?, ?>) table.getModel(), filter,
+                        TextSearchIndex.Mode.CONTAINS));
+                break;
+            case 1:
+                sorter.setRowFilter(new SearchRowFilter(sms, (LiveTableModel<?, ?>) table.getModel(), filter,
+                        TextSearchIndex.Mode.PREFIX));
+                break;
+            default:
+                try {
+                    sorter.setRowFilter(RowFilter.regexFilter(filter));
+                } catch (PatternSyntaxException e) {
+                    JOptionPane.showMessageDialog(frame, "Invalid regex: " + e.getDescription());
+                }
+                break;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void unfilterTable(JTable table) {
+        ((TableRowSorter<TableModel>) table.getRowSorter()).setRowFilter(null);
+    }
+
     // Filter the dashboard table
     private void filterDashboard() {
-        String filter = JOptionPane.showInputDialog("Type to filter:");
-        if (filter != null) {
-            TableRowSorter<TableModel> rowSorter = new TableRowSorter<>(dataDisplayDashboard.getModel());
-            dataDisplayDashboard.setRowSorter(rowSorter);
-            rowSorter.setRowFilter(RowFilter.regexFilter(filter));
-        }
+        filterTable(dataDisplayDashboard);
     }
 
     private void unfilterDashboard() {
-        dataDisplayDashboard.setRowSorter(null);
+        unfilterTable(dataDisplayDashboard);
     }
 
     // Add, remove, filter students
@@ -562,10 +610,55 @@ public class StudentManagementSystemGUI {
             if (name.isEmpty() || id.isEmpty() || email.isEmpty()) {
                 JOptionPane.showMessageDialog(frame, "All fields must be filled out.");
             } else {
-                Student student = new Student(name, id, email);
-                sms.addStudent(student);
-                updateDataDisplays();
+                try {
+                    sms.addStudent(new Student(name, id, email));
+                    break;
+                } catch (IllegalArgumentException e) {
+                    JOptionPane.showMessageDialog(frame, e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Show the grade statistics of one student
+    private void showStudentStats() {
+        while (true) {
+            JPanel inputPanel = new JPanel(new GridLayout(1, 2));
+            JTextField studentIdField = new JTextField();
+            TypeAhead.forStudents(studentIdField, sms);
+
+            inputPanel.add(new JLabel("Student ID:"));
+            inputPanel.add(studentIdField);
+
+            int result = JOptionPane.showOptionDialog(frame, inputPanel, "Student Statistics",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE, null, null, null);
+
+            if (result == JOptionPane.CANCEL_OPTION || result == JOptionPane.CLOSED_OPTION) {
+                break;
+            }
+
+            String id = studentIdField.getText().trim();
+
+            if (id.isEmpty()) {
+                JOptionPane.showMessageDialog(frame, "All fields must be filled out.");
+                continue;
+            }
+
+            Optional<Student> student = sms.getStudentById(id);
+
+            if (student.isPresent()) {
+                GradeSummary stats = sms.getStudentStats(student.get());
+                if (stats.getCount() == 0) {
+                    JOptionPane.showMessageDialog(frame, student.get().getName() + " has no grades.");
+                } else {
+                    JOptionPane.showMessageDialog(frame, String.format(
+                            "%s%nGrades: %d%nMean: %.2f%nMin: %.2f%nMax: %.2f%nPassed: %d (%.1f%%)",
+                            student.get().getName(), stats.getCount(), stats.getMean(), stats.getMin(),
+                            stats.getMax(), stats.getPassCount(), 100 * stats.getPassRate()));
+                }
                 break;
+            } else {
+                JOptionPane.showMessageDialog(frame, "Student not found.");
             }
         }
     }
@@ -574,6 +667,7 @@ public class StudentManagementSystemGUI {
         while (true) {
             JPanel inputPanel = new JPanel(new GridLayout(1, 2));
             JTextField studentIdField = new JTextField();
+            TypeAhead.forStudents(studentIdField, sms);
 
             inputPanel.add(new JLabel("Student ID:"));
             inputPanel.add(studentIdField);
@@ -592,9 +686,7 @@ public class StudentManagementSystemGUI {
                 continue;
             }
 
-            Optional<Student> student = sms.getStudents().stream()
-                    .filter(s -> s.getId().equals(id))
-                    .findFirst();
+            Optional<Student> student = sms.getStudentById(id);
 
             if (student.isPresent()) {
                 sms.removeStudent(student.get());
@@ -605,18 +697,14 @@ public class StudentManagementSystemGUI {
             }
         }
 
-        updateDataDisplays();
     }
 
     private void filterStudents() {
-        String filter = JOptionPane.showInputDialog("Type to filter:");
-        TableRowSorter<TableModel> sorter = new TableRowSorter<>(dataDisplayStudent.getModel());
-        dataDisplayStudent.setRowSorter(sorter);
-        sorter.setRowFilter(RowFilter.regexFilter(filter));
+        filterTable(dataDisplayStudent);
     }
 
     private void unfilterStudents() {
-        dataDisplayStudent.setRowSorter(null);
+        unfilterTable(dataDisplayStudent);
     }
 
     // Add, remove, filter grades
@@ -699,24 +787,26 @@ public class StudentManagementSystemGUI {
             }
 
             int year = firstYearButton.isSelected() ? 1 : secondYearButton.isSelected() ? 2 : 3;
-            List<String> semesters = new ArrayList<>();
+            Semesters semesters;
             if (sem1CheckBox.isSelected() && sem2CheckBox.isSelected()) {
-                semesters.add("SEM" + (2 * year - 1) + " & SEM" + (2 * year));
+                semesters = Semesters.of(2 * year - 1, 2 * year);
+            } else if (sem1CheckBox.isSelected()) {
+                semesters = Semesters.of(2 * year - 1);
+            } else if (sem2CheckBox.isSelected()) {
+                semesters = Semesters.of(2 * year);
             } else {
-                if (sem1CheckBox.isSelected()) {
-                    semesters.add("SEM" + (2 * year - 1));
-                }
-                if (sem2CheckBox.isSelected()) {
-                    semesters.add("SEM" + (2 * year));
-                }
+                semesters = Semesters.NONE;
             }
 
-            for (String semester : semesters) {
-                Module module = new Module(name, id, teacher, semester);
-                sms.addModule(module);
+            if (!semesters.isEmpty()) {
+                try {
+                    sms.addModule(new Module(name, id, teacher, semesters.toString()));
+                } catch (IllegalArgumentException e) {
+                    JOptionPane.showMessageDialog(frame, e.getMessage());
+                    continue;
+                }
             }
 
-            updateDataDisplays();
             break;
         }
     }
@@ -725,6 +815,7 @@ public class StudentManagementSystemGUI {
         while (true) {
             JPanel inputPanel = new JPanel(new GridLayout(1, 2));
             JTextField moduleIdField = new JTextField();
+            TypeAhead.forModules(moduleIdField, sms);
 
             inputPanel.add(new JLabel("Module ID:"));
             inputPanel.add(moduleIdField);
@@ -743,9 +834,7 @@ public class StudentManagementSystemGUI {
                 continue;
             }
 
-            Optional<Module> module = sms.getModules().stream()
-                    .filter(m -> m.getId().equals(id))
-                    .findFirst();
+            Optional<Module> module = sms.getModuleById(id);
 
             if (module.isPresent()) {
                 sms.removeModule(module.get());
@@ -756,18 +845,14 @@ public class StudentManagementSystemGUI {
             }
         }
 
-        updateDataDisplays();
     }
 
     private void filterModules() {
-        String filter = JOptionPane.showInputDialog("Type to filter:");
-        TableRowSorter<TableModel> sorter = new TableRowSorter<>(dataDisplayModule.getModel());
-        dataDisplayModule.setRowSorter(sorter);
-        sorter.setRowFilter(RowFilter.regexFilter(filter));
+        filterTable(dataDisplayModule);
     }
 
     private void unfilterModules() {
-        dataDisplayModule.setRowSorter(null);
+        unfilterTable(dataDisplayModule);
     }
 
     // Add, remove, filter grades
@@ -777,6 +862,8 @@ public class StudentManagementSystemGUI {
             JTextField studentIdField = new JTextField();
             JTextField moduleIdField = new JTextField();
             JTextField gradeField = new JTextField();
+            TypeAhead.forStudents(studentIdField, sms);
+            TypeAhead.forModules(moduleIdField, sms);
 
             inputPanel.add(new JLabel("Student ID:"));
             inputPanel.add(studentIdField);
@@ -801,12 +888,8 @@ public class StudentManagementSystemGUI {
                 continue;
             }
 
-            Optional<Student> student = sms.getStudents().stream()
-                    .filter(s -> s.getId().equals(studentId))
-                    .findFirst();
-            Optional<Module> module = sms.getModules().stream()
-                    .filter(m -> m.getId().equals(moduleId))
-                    .findFirst();
+            Optional<Student> student = sms.getStudentById(studentId);
+            Optional<Module> module = sms.getModuleById(moduleId);
 
             if (student.isPresent() && module.isPresent()) {
                 double gradeValue = Double.parseDouble(gradeStr);
@@ -818,7 +901,6 @@ public class StudentManagementSystemGUI {
             }
         }
 
-        updateDataDisplays();
     }
 
     private void removeGrade() {
@@ -826,6 +908,8 @@ public class StudentManagementSystemGUI {
             JPanel inputPanel = new JPanel(new GridLayout(2, 2));
             JTextField studentIdField = new JTextField();
             JTextField moduleIdField = new JTextField();
+            TypeAhead.forStudents(studentIdField, sms);
+            TypeAhead.forModules(moduleIdField, sms);
 
             inputPanel.add(new JLabel("Student ID:"));
             inputPanel.add(studentIdField);
@@ -847,12 +931,8 @@ public class StudentManagementSystemGUI {
                 continue;
             }
 
-            Optional<Student> student = sms.getStudents().stream()
-                    .filter(s -> s.getId().equals(studentId))
-                    .findFirst();
-            Optional<Module> module = sms.getModules().stream()
-                    .filter(m -> m.getId().equals(moduleId))
-                    .findFirst();
+            Optional<Student> student = sms.getStudentById(studentId);
+            Optional<Module> module = sms.getModuleById(moduleId);
 
             if (student.isPresent() && module.isPresent()) {
                 Optional<Grade> grade = sms.findGrade(student.get(), module.get());
@@ -868,89 +948,67 @@ public class StudentManagementSystemGUI {
             }
         }
 
-        updateDataDisplays();
     }
 
     private void filterGrades() {
-        String filter = JOptionPane.showInputDialog("Type to filter:");
-        TableRowSorter<TableModel> sorter = new TableRowSorter<>(dataDisplayGrade.getModel());
-        dataDisplayGrade.setRowSorter(sorter);
-        sorter.setRowFilter(RowFilter.regexFilter(filter));
+        filterTable(dataDisplayGrade);
     }
 
     private void unfilterGrades() {
-        dataDisplayGrade.setRowSorter(null);
+        unfilterTable(dataDisplayGrade);
     }
 
-    // Save to file
+    // Save to file in the background, the status bar shows when it is done
     private void saveToFile() {
-        String fileName = "database.csv";
-        sms.saveToFile(fileName);
-        JOptionPane.showMessageDialog(frame, "Data saved successfully.");
+        persistence.save();
+    }
+
+    // Changes are journaled as they happen, saving only commits them. Waits for the write, used on exit.
+    private boolean saveDatabase() {
+        try {
+            persistence.save().get();
+            return true;
+        } catch (ExecutionException e) {
+            JOptionPane.showMessageDialog(frame, "Data could not be saved: " + e.getCause().getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
-    // Ennroll/Unenroll/Update student in module
-    private void enrollStudent(String studentId, String moduleId) {
-        Optional<Student> student = sms.getStudentById(studentId);
-        Optional<Module> module = sms.getModuleById(moduleId);
-
-        if (student.isPresent() && module.isPresent()) {
-            sms.enrollStudentInModule(student.get(), module.get());
-            JOptionPane.showMessageDialog(frame, "Student enrolled in module " + module.get().getName());
-        } else {
-            JOptionPane.showMessageDialog(frame, "Student or module not found.");
+    // Used on exit, what was saved is already on disk, so a failure is only shown
+    private void closeDatabase() {
+        try {
+            persistence.close();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, "The database could not be closed: " + e.getMessage());
         }
-        updateDataDisplays();
     }
 
-    private void unenrollStudent(String studentId, String moduleId) {
-        Optional<Student> student = sms.getStudentById(studentId);
-        Optional<Module> module = sms.getModuleById(moduleId);
-
-        if (student.isPresent() && module.isPresent()) {
-            sms.unenrollStudentFromModule(student.get(), module.get());
-            JOptionPane.showMessageDialog(frame, "Student unenrolled from module " + module.get().getName());
-        } else {
-            JOptionPane.showMessageDialog(frame, "Student or module not found.");
+    // Load the snapshot and journal, or the CSV file when it was changed after them
+    private void loadFromFile() {
+        try {
+            LoadReport report = database.open();
+            if (report.hasErrors()) {
+                JOptionPane.showMessageDialog(frame, "Some data could not be loaded, " + report.getErrorCount()
+                        + " errors:\n" + String.join("\n", report.getErrors().subList(0,
+                                Math.min(10, report.getErrors().size()))));
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, "Data could not be loaded: " + e.getMessage());
         }
-        updateDataDisplays();
     }
 
-    private void updateEnrollment(JScrollPane scrollPane, String studentId) {
+    // Collect the enrollment changes of a semester table, one per module row
+    private void collectEnrollmentChanges(JScrollPane scrollPane, Student student, List<EnrollmentChange> changes) {
         JTable table = (JTable) scrollPane.getViewport().getView();
         for (int i = 0; i < table.getRowCount(); i++) {
             boolean enrolled = (boolean) table.getValueAt(i, 2);
             String moduleId = (String) table.getValueAt(i, 0);
-            if (enrolled) {
-                enrollStudent(studentId, moduleId);
-            } else {
-                unenrollStudent(studentId, moduleId);
-            }
+            sms.getModuleById(moduleId)
+                    .ifPresent(module -> changes.add(new EnrollmentChange(student, module, enrolled)));
         }
     }
 
-    // Update data displays after changes
-    private void updateDataDisplays() {
-        updateDataDisplayDashboard();
-        updateDataDisplayStudent();
-        updateDataDisplayModule();
-        updateDataDisplayGrade();
-    }
-
-    private void updateDataDisplayDashboard() {
-        dataDisplayDashboard.setModel(createDashboardTableModel());
-    }
-
-    private void updateDataDisplayStudent() {
-        dataDisplayStudent.setModel(createStudentTableModel());
-    }
-
-    private void updateDataDisplayModule() {
-        dataDisplayModule.setModel(createModuleTableModel());
-    }
-
-    private void updateDataDisplayGrade() {
-        dataDisplayGrade.setModel(createGradeTableModel());
-    }
-
 }
\ No newline at end of file
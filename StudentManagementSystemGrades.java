@@ -0,0 +1,503 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the grade store of the StudentManagementSystem. The
+ *              grades are kept as columns of primitive values instead of one object per
+ *              grade, and Grade objects are views of a single grade in the store. It also
+ *              keeps the running grade statistics of each student and module, and the
+ *              grade distribution of each module.
+ *
+*/
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+
+// Columnar store of the grades. The student key, module key and value of each grade sit in parallel
+// primitive arrays at the grade's slot. Slots of removed grades are reused, but only once the changes
+// that removed them have reached the listeners (releaseRemoved), so the views in those changes still
+// read the old values. Each grade also gets a sequence number when it is added, which tells a view of
+// a removed grade apart from the grade that later took its slot.
+// Not thread safe, the StudentManagementSystem guards it with its lock.
+final class GradeStore {
+    static final int NONE = -1;
+
+    // Columns by slot. The student key of a removed grade is stored as ~key, so it is negative.
+    private int[] studentKeys = new int[16];
+    private int[] moduleKeys = new int[16];
+    private double[] values = new double[16];
+    private int[] sequences = new int[16];
+
+    // Each student's and each module's grades are doubly chained in the order they were added, so a grade
+    // is unlinked without walking its chains. Removed slots are chained through nextOfStudent, first
+    // waiting for releaseRemoved and then free.
+    private int[] nextOfStudent = new int[16];
+    private int[] prevOfStudent = new int[16];
+    private int[] firstOfStudent = new int[0];
+    private int[] lastOfStudent = new int[0];
+    private int[] nextOfModule = new int[16];
+    private int[] prevOfModule = new int[16];
+    private int[] firstOfModule = new int[0];
+    private int[] lastOfModule = new int[0];
+
+    private int slotCount;
+    private int size;
+    private int nextSequence;
+    private int removedSlot = NONE;
+    private int freeSlot = NONE;
+
+    // Students and modules by key, for the views
+    private Student[] studentsByKey = new Student[0];
+    private Module[] modulesByKey = new Module[0];
+
+    // Running statistics of each student's and each module's grades, by key
+    private GradeStats[] statsOfStudent = new GradeStats[0];
+    private GradeStats[] statsOfModule = new GradeStats[0];
+
+    // Distribution of each module's grades, by key
+    private GradeDistribution[] distributionOfModule = new GradeDistribution[0];
+
+    // Record of each (student, module) pair, which also holds the pair's first grade and its attempts
+    private final EnrollmentStore records;
+
+    // Changes to the views go through the owner
+    private final StudentManagementSystem owner;
+
+    GradeStore(StudentManagementSystem owner, EnrollmentStore records) {
+        this.owner = owner;
+        this.records = records;
+    }
+
+    StudentManagementSystem getOwner() {
+        return owner;
+    }
+
+    void registerStudent(Student student) {
+        int key = student.getKey();
+        if (key >= studentsByKey.length) {
+            int length = Math.max(key + 1, studentsByKey.length * 3 / 2 + 16);
+            studentsByKey = Arrays.copyOf(studentsByKey, length);
+            statsOfStudent = Arrays.copyOf(statsOfStudent, length);
+            int old = firstOfStudent.length;
+            firstOfStudent = Arrays.copyOf(firstOfStudent, length);
+            lastOfStudent = Arrays.copyOf(lastOfStudent, length);
+            Arrays.fill(firstOfStudent, old, length, NONE);
+            Arrays.fill(lastOfStudent, old, length, NONE);
+        }
+        studentsByKey[key] = student;
+        if (statsOfStudent[key] == null) {
+            statsOfStudent[key] = new GradeStats();
+        }
+    }
+
+    void registerModule(Module module) {
+        int key = module.getKey();
+        if (key >= modulesByKey.length) {
+            int length = Math.max(key + 1, modulesByKey.length * 3 / 2 + 16);
+            modulesByKey = Arrays.copyOf(modulesByKey, length);
+            statsOfModule = Arrays.copyOf(statsOfModule, length);
+            distributionOfModule = Arrays.copyOf(distributionOfModule, length);
+            int old = firstOfModule.length;
+            firstOfModule = Arrays.copyOf(firstOfModule, length);
+            lastOfModule = Arrays.copyOf(lastOfModule, length);
+            Arrays.fill(firstOfModule, old, length, NONE);
+            Arrays.fill(lastOfModule, old, length, NONE);
+        }
+        modulesByKey[key] = module;
+        if (statsOfModule[key] == null) {
+            statsOfModule[key] = new GradeStats();
+            distributionOfModule[key] = new GradeDistribution();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Whether the grade added with the sequence number is still in the slot
+    boolean isLive(int slot, int sequence) {
+        return slot >= 0 && slot < slotCount && studentKeys[slot] >= 0 && sequences[slot] == sequence;
+    }
+
+    int getSequence(int slot) {
+        return sequences[slot];
+    }
+
+    int getStudentKey(int slot) {
+        int key = studentKeys[slot];
+        return key >= 0 ? key : ~key;
+    }
+
+    int getModuleKey(int slot) {
+        return moduleKeys[slot];
+    }
+
+    Student getStudentByKey(int key) {
+        return studentsByKey[key];
+    }
+
+    Module getModuleByKey(int key) {
+        return modulesByKey[key];
+    }
+
+    Student getStudent(int slot) {
+        return studentsByKey[getStudentKey(slot)];
+    }
+
+    Module getModule(int slot) {
+        return modulesByKey[moduleKeys[slot]];
+    }
+
+    double getValue(int slot) {
+        return values[slot];
+    }
+
+    void setValue(int slot, double value) {
+        double old = values[slot];
+        values[slot] = value;
+        if (studentKeys[slot] >= 0) {
+            statsOfStudent[studentKeys[slot]].update(old, value);
+            statsOfModule[moduleKeys[slot]].update(old, value);
+            distributionOfModule[moduleKeys[slot]].update(old, value);
+        }
+    }
+
+    // Statistics of the live grades of a student or module, EMPTY for a key that was never registered
+    GradeSummary summarizeStudent(int studentKey) {
+        if (studentKey < 0 || studentKey >= statsOfStudent.length || statsOfStudent[studentKey] == null) {
+            return GradeSummary.EMPTY;
+        }
+        return statsOfStudent[studentKey].summarize(
+                grades -> forEachOfStudent(studentKey, slot -> grades.accept(values[slot])));
+    }
+
+    GradeSummary summarizeModule(int moduleKey) {
+        if (moduleKey < 0 || moduleKey >= statsOfModule.length || statsOfModule[moduleKey] == null) {
+            return GradeSummary.EMPTY;
+        }
+        return statsOfModule[moduleKey].summarize(
+                grades -> forEachOfModule(moduleKey, slot -> grades.accept(values[slot])));
+    }
+
+    // Adds the distribution of a module's live grades to the given one, nothing for a key that was never
+    // registered
+    void mergeModuleDistribution(int moduleKey, GradeDistribution into) {
+        if (moduleKey >= 0 && moduleKey < distributionOfModule.length && distributionOfModule[moduleKey] != null) {
+            into.merge(distributionOfModule[moduleKey]);
+        }
+    }
+
+    // Statistics of every module by key
+    GradeSummary[] summarizeModules() {
+        GradeSummary[] summaries = new GradeSummary[statsOfModule.length];
+        for (int key = 0; key < summaries.length; key++) {
+            summaries[key] = summarizeModule(key);
+        }
+        return summaries;
+    }
+
+    // Adds a grade of a registered student and module and returns its slot
+    int add(int studentKey, int moduleKey, double value) {
+        if (studentKey < 0 || studentKey >= studentsByKey.length || studentsByKey[studentKey] == null
+                || moduleKey < 0 || moduleKey >= modulesByKey.length || modulesByKey[moduleKey] == null) {
+            throw new IllegalArgumentException("The student and module of a grade must be added first");
+        }
+        int slot;
+        if (freeSlot != NONE) {
+            slot = freeSlot;
+            freeSlot = nextOfStudent[slot];
+        } else {
+            if (slotCount == studentKeys.length) {
+                int length = slotCount * 3 / 2 + 16;
+                studentKeys = Arrays.copyOf(studentKeys, length);
+                moduleKeys = Arrays.copyOf(moduleKeys, length);
+                values = Arrays.copyOf(values, length);
+                sequences = Arrays.copyOf(sequences, length);
+                nextOfStudent = Arrays.copyOf(nextOfStudent, length);
+                prevOfStudent = Arrays.copyOf(prevOfStudent, length);
+                nextOfModule = Arrays.copyOf(nextOfModule, length);
+                prevOfModule = Arrays.copyOf(prevOfModule, length);
+            }
+            slot = slotCount++;
+        }
+        studentKeys[slot] = studentKey;
+        moduleKeys[slot] = moduleKey;
+        values[slot] = value;
+        sequences[slot] = nextSequence++;
+
+        int last = lastOfStudent[studentKey];
+        if (last == NONE) {
+            firstOfStudent[studentKey] = slot;
+        } else {
+            nextOfStudent[last] = slot;
+        }
+        nextOfStudent[slot] = NONE;
+        prevOfStudent[slot] = last;
+        lastOfStudent[studentKey] = slot;
+
+        last = lastOfModule[moduleKey];
+        if (last == NONE) {
+            firstOfModule[moduleKey] = slot;
+        } else {
+            nextOfModule[last] = slot;
+        }
+        nextOfModule[slot] = NONE;
+        prevOfModule[slot] = last;
+        lastOfModule[moduleKey] = slot;
+
+        records.gradeAdded(studentKey, moduleKey, slot);
+        statsOfStudent[studentKey].add(value);
+        statsOfModule[moduleKey].add(value);
+        distributionOfModule[moduleKey].add(value);
+        size++;
+        return slot;
+    }
+
+    // Removes a live grade, its values stay readable through the slot until releaseRemoved
+    void remove(int slot) {
+        int studentKey = studentKeys[slot];
+        int moduleKey = moduleKeys[slot];
+
+        // Unlink from the student's chain and the module's chain
+        int previous = prevOfStudent[slot];
+        int studentNext = nextOfStudent[slot];
+        if (previous == NONE) {
+            firstOfStudent[studentKey] = studentNext;
+        } else {
+            nextOfStudent[previous] = studentNext;
+        }
+        if (studentNext == NONE) {
+            lastOfStudent[studentKey] = previous;
+        } else {
+            prevOfStudent[studentNext] = previous;
+        }
+        previous = prevOfModule[slot];
+        int moduleNext = nextOfModule[slot];
+        if (previous == NONE) {
+            firstOfModule[moduleKey] = moduleNext;
+        } else {
+            nextOfModule[previous] = moduleNext;
+        }
+        if (moduleNext == NONE) {
+            lastOfModule[moduleKey] = previous;
+        } else {
+            prevOfModule[moduleNext] = previous;
+        }
+        studentKeys[slot] = ~studentKey;
+        nextOfStudent[slot] = removedSlot;
+        removedSlot = slot;
+        size--;
+        statsOfStudent[studentKey].remove(values[slot]);
+        statsOfModule[moduleKey].remove(values[slot]);
+        distributionOfModule[moduleKey].remove(values[slot]);
+
+        // If this was the pair's first grade, the next grade of the pair in the student's chain takes over,
+        // which can only come after it
+        records.gradeRemoved(studentKey, moduleKey, slot, () -> {
+            for (int s = studentNext; s != NONE; s = nextOfStudent[s]) {
+                if (moduleKeys[s] == moduleKey) {
+                    return s;
+                }
+            }
+            return NONE;
+        });
+    }
+
+    // Lets add reuse the slots removed so far, called once no change that holds views of them is pending
+    void releaseRemoved() {
+        while (removedSlot != NONE) {
+            int slot = removedSlot;
+            removedSlot = nextOfStudent[slot];
+            nextOfStudent[slot] = freeSlot;
+            freeSlot = slot;
+        }
+    }
+
+    // Drops the spare capacity of the columns, called after a load
+    void trimToSize() {
+        studentKeys = Arrays.copyOf(studentKeys, slotCount);
+        moduleKeys = Arrays.copyOf(moduleKeys, slotCount);
+        values = Arrays.copyOf(values, slotCount);
+        sequences = Arrays.copyOf(sequences, slotCount);
+        nextOfStudent = Arrays.copyOf(nextOfStudent, slotCount);
+        prevOfStudent = Arrays.copyOf(prevOfStudent, slotCount);
+        nextOfModule = Arrays.copyOf(nextOfModule, slotCount);
+        prevOfModule = Arrays.copyOf(prevOfModule, slotCount);
+    }
+
+    // First grade of the pair, or NONE
+    int find(int studentKey, int moduleKey) {
+        int record = records.find(studentKey, moduleKey);
+        return record == EnrollmentStore.NONE ? NONE : records.getFirstGrade(record);
+    }
+
+    // Progress of a registered student: the student's grades sorted by module key, then the best grade of
+    // each module
+    StudentProgress progressOf(Student student) {
+        int studentKey = student.getKey();
+        int count = 0;
+        for (int s = firstOfStudent[studentKey]; s != NONE; s = nextOfStudent[s]) {
+            count++;
+        }
+        long[] sorted = new long[count];
+        int i = 0;
+        for (int s = firstOfStudent[studentKey]; s != NONE; s = nextOfStudent[s]) {
+            sorted[i++] = (long) moduleKeys[s] << 32 | s;
+        }
+        Arrays.sort(sorted);
+
+        Module[] completed = new Module[count];
+        double[] best = new double[count];
+        int completedCount = 0;
+        for (long entry : sorted) {
+            int slot = (int) entry;
+            Module module = modulesByKey[moduleKeys[slot]];
+            if (completedCount > 0 && completed[completedCount - 1] == module) {
+                best[completedCount - 1] = Math.max(best[completedCount - 1], values[slot]);
+            } else {
+                completed[completedCount] = module;
+                best[completedCount++] = values[slot];
+            }
+        }
+        return StudentProgress.of(Arrays.copyOf(completed, completedCount), best,
+                records.enrolledModuleKeys(studentKey));
+    }
+
+    // Live grades of one student in the order they were added
+    void forEachOfStudent(int studentKey, IntConsumer action) {
+        if (studentKey < 0 || studentKey >= firstOfStudent.length) {
+            return;
+        }
+        for (int s = firstOfStudent[studentKey]; s != NONE; s = nextOfStudent[s]) {
+            action.accept(s);
+        }
+    }
+
+    // Live grades of one module in the order they were added
+    void forEachOfModule(int moduleKey, IntConsumer action) {
+        if (moduleKey < 0 || moduleKey >= firstOfModule.length) {
+            return;
+        }
+        for (int s = firstOfModule[moduleKey]; s != NONE; s = nextOfModule[s]) {
+            action.accept(s);
+        }
+    }
+
+    void forEach(IntConsumer action) {
+        for (int s = 0; s < slotCount; s++) {
+            if (studentKeys[s] >= 0) {
+                action.accept(s);
+            }
+        }
+    }
+}
+
+// Running statistics of a group of grades, changed in O(1) as grades are added, updated and removed.
+// Removing the lowest or highest grade only marks the min and max stale, the owner recomputes them from
+// the grades the next time they are read. Changed under the write lock of the StudentManagementSystem,
+// read under its read lock.
+final class GradeStats {
+    private int count;
+    private double sum;
+    private int passCount;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private boolean minMaxStale;
+
+    void add(double value) {
+        count++;
+        sum += value;
+        if (value >= StudentManagementSystem.PASS_MARK) {
+            passCount++;
+        }
+        if (!minMaxStale) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+
+    void remove(double value) {
+        count--;
+        sum -= value;
+        if (value >= StudentManagementSystem.PASS_MARK) {
+            passCount--;
+        }
+        if (count == 0) {
+            // Also clears the rounding left in the sum
+            sum = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            minMaxStale = false;
+        } else if (value <= min || value >= max) {
+            minMaxStale = true;
+        }
+    }
+
+    void update(double oldValue, double newValue) {
+        remove(oldValue);
+        add(newValue);
+    }
+
+    // Takes the grades of the group to recompute a stale min and max, several readers may ask at once
+    synchronized GradeSummary summarize(Consumer<DoubleConsumer> grades) {
+        if (minMaxStale) {
+            double[] range = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+            grades.accept(value -> {
+                range[0] = Math.min(range[0], value);
+                range[1] = Math.max(range[1], value);
+            });
+            min = range[0];
+            max = range[1];
+            minMaxStale = false;
+        }
+        return new GradeSummary(count, sum, min, max, passCount);
+    }
+}
+
+// Statistics of a group of grades at one moment
+final class GradeSummary {
+    public static final GradeSummary EMPTY = new GradeSummary(0, 0, Double.NaN, Double.NaN, 0);
+
+    private final int count;
+    private final double sum;
+    private final double min;
+    private final double max;
+    private final int passCount;
+
+    GradeSummary(int count, double sum, double min, double max, int passCount) {
+        this.count = count;
+        this.sum = sum;
+        this.min = count == 0 ? Double.NaN : min;
+        this.max = count == 0 ? Double.NaN : max;
+        this.passCount = count == 0 ? 0 : passCount;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // NaN when there are no grades, as for min and max
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public int getPassCount() {
+        return passCount;
+    }
+
+    // Share of the grades at or above StudentManagementSystem.PASS_MARK, from 0 to 1
+    public double getPassRate() {
+        return count == 0 ? Double.NaN : (double) passCount / count;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the academic progress of each student, the modules
+ *              completed and passed. It is worked out from the grades and enrollments
+ *              once after they change, rather than every time the GUI asks for it.
+ *
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+// Progress of one student at one moment. A module is completed once the student has a grade for it, and
+// passed when the best of those grades is at least StudentManagementSystem.PASS_MARK. The enrolled,
+// completed and passed modules are also kept as bits by module key, which are dense, so checks for a
+// module and for many modules at once are word operations. Modules have no credits in this data model, so
+// the totals are counts of modules. Immutable, so it can be read from any thread without the lock.
+final class StudentProgress {
+    public static final StudentProgress EMPTY = new StudentProgress(new Module[0], new long[0], new long[0],
+            new long[0]);
+
+    private static final Comparator<String> ID_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    // Completed modules sorted by the ID each had when this was built
+    private final Module[] completed;
+
+    // Bit k of each is the module with key k
+    private final long[] enrolledBits;
+    private final long[] completedBits;
+    private final long[] passedBits;
+
+    private final List<Module> completedModules;
+    private final List<Module> passedModules;
+
+    private StudentProgress(Module[] completed, long[] enrolledBits, long[] completedBits, long[] passedBits) {
+        this.completed = completed;
+        this.enrolledBits = enrolledBits;
+        this.completedBits = completedBits;
+        this.passedBits = passedBits;
+
+        List<Module> passedList = new ArrayList<>();
+        for (int i = 0; i < completed.length; i++) {
+            if (isSet(passedBits, completed[i].getKey())) {
+                passedList.add(completed[i]);
+            }
+        }
+        completedModules = Collections.unmodifiableList(Arrays.asList(completed));
+        passedModules = Collections.unmodifiableList(passedList);
+    }
+
+    // Built from the completed modules, the best grade of each and the keys of the modules the student is
+    // enrolled in
+    static StudentProgress of(Module[] completed, double[] bestGrades, int[] enrolledKeys) {
+        if (completed.length == 0 && enrolledKeys.length == 0) {
+            return EMPTY;
+        }
+        int maxKey = 0;
+        for (int key : enrolledKeys) {
+            maxKey = Math.max(maxKey, key);
+        }
+        for (Module module : completed) {
+            maxKey = Math.max(maxKey, module.getKey());
+        }
+        int words = (maxKey >>> 6) + 1;
+        long[] enrolledBits = new long[words];
+        for (int key : enrolledKeys) {
+            enrolledBits[key >>> 6] |= 1L << key;
+        }
+        long[] completedBits = new long[words];
+        long[] passedBits = new long[words];
+        for (int i = 0; i < completed.length; i++) {
+            int key = completed[i].getKey();
+            completedBits[key >>> 6] |= 1L << key;
+            if (bestGrades[i] >= StudentManagementSystem.PASS_MARK) {
+                passedBits[key >>> 6] |= 1L << key;
+            }
+        }
+        Module[] byId = completed.clone();
+        Arrays.sort(byId, Comparator.comparing(Module::getId, ID_ORDER));
+        return new StudentProgress(byId, enrolledBits, completedBits, passedBits);
+    }
+
+    private static boolean isSet(long[] bits, int key) {
+        int word = key >>> 6;
+        return key >= 0 && word < bits.length && (bits[word] & 1L << key) != 0;
+    }
+
+    private static long word(long[] bits, int word) {
+        return word < bits.length ? bits[word] : 0;
+    }
+
+    public boolean isEnrolled(Module module) {
+        return isSet(enrolledBits, module.getKey());
+    }
+
+    public boolean hasCompleted(Module module) {
+        return isSet(completedBits, module.getKey());
+    }
+
+    public boolean hasPassed(Module module) {
+        return isSet(passedBits, module.getKey());
+    }
+
+    // Of the modules with bits set in modules, leaves set in into those the student can enroll in: the
+    // ones not enrolled in and not passed. into is at least as long as modules.
+    void eligibleAmong(long[] modules, long[] into) {
+        for (int i = 0; i < modules.length; i++) {
+            into[i] = modules[i] & ~(word(enrolledBits, i) | word(passedBits, i));
+        }
+    }
+
+    public List<Module> getCompletedModules() {
+        return completedModules;
+    }
+
+    public List<Module> getPassedModules() {
+        return passedModules;
+    }
+
+    public int getCompletedCount() {
+        return completed.length;
+    }
+
+    public int getPassedCount() {
+        return passedModules.size();
+    }
+
+    public int getEnrolledCount() {
+        int count = 0;
+        for (long word : enrolledBits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // Enrolled in, with no grade yet
+    public int getInProgressCount() {
+        int count = 0;
+        for (int i = 0; i < enrolledBits.length; i++) {
+            count += Long.bitCount(enrolledBits[i] & ~word(completedBits, i));
+        }
+        return count;
+    }
+}
+
+// Drops the cached progress of the students whose grades or enrollments changed, so it is worked out
+// again the next time it is asked for. It is the first listener, so the other listeners already get the
+// new progress.
+class StudentProgressTracker implements DataChangeListener {
+    private final StudentManagementSystem sms;
+
+    public StudentProgressTracker(StudentManagementSystem sms) {
+        this.sms = sms;
+    }
+
+    @Override
+    public void dataChanged(List<DataChange> changes) {
+        for (DataChange change : changes) {
+            switch (change.getType()) {
+                case RELOADED:
+                    for (Student student : sms.getStudents()) {
+                        student.setCachedProgress(null);
+                    }
+                    break;
+                case MODULE_UPDATED:
+                    // Completed modules are sorted by ID, so a new ID drops the progress of the students
+                    // that completed the module
+                    if (!Objects.equals(change.getOldId(), change.getModule().getId())) {
+                        for (Student student : sms.getStudents()) {
+                            StudentProgress progress = student.getCachedProgress();
+                            if (progress != null && progress.hasCompleted(change.getModule())) {
+                                student.setCachedProgress(null);
+                            }
+                        }
+                    }
+                    break;
+                case STUDENT_ADDED:
+                case STUDENT_REMOVED:
+                case ENROLLED:
+                case UNENROLLED:
+                case GRADE_ADDED:
+                case GRADE_REMOVED:
+                case GRADE_UPDATED:
+                    change.getStudent().setCachedProgress(null);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
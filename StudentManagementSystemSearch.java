@@ -0,0 +1,523 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the text search of the application. The names, IDs,
+ *              emails and teachers of the students and modules are kept in trigram indexes
+ *              that change with the data, so the Filter dialogs find substrings and prefixes
+ *              without running a regex over every cell of every row. The IDs and names are
+ *              also kept sorted, for the suggestions shown while an ID is typed.
+ *
+*/
+
+import java.awt.Point;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import javax.swing.AbstractAction;
+import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.JWindow;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.RowFilter;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.TableModel;
+
+// Trigram index over the text fields of entities with dense int keys. Each entity's fields are lower cased
+// and joined with SEPARATOR, and every three characters in a row point to the keys that contain them. A
+// query of three or more characters only checks the keys that have all of its trigrams, shorter queries
+// check every key, still without a regex. Not thread safe, the StudentManagementSystem guards it with its
+// lock.
+final class TextSearchIndex {
+    enum Mode {
+        // The text appears anywhere in a field, or at the start of one
+        CONTAINS, PREFIX
+    }
+
+    // Never typed in a query, so no match spans two fields
+    private static final char SEPARATOR = '\u0000';
+
+    // Joined text by key, null for keys not in the index
+    private String[] textByKey = new String[0];
+    private int size;
+
+    // Keys by trigram, sorted
+    private final Map<Long, Postings> postingsByTrigram = new HashMap<>();
+
+    private static final class Postings {
+        private int[] keys = new int[4];
+        private int count;
+
+        void add(int key) {
+            if (count > 0 && keys[count - 1] >= key) {
+                // Out of order only after a change, kept sorted
+                int index = Arrays.binarySearch(keys, 0, count, key);
+                if (index >= 0) {
+                    return;
+                }
+                insertAt(-index - 1, key);
+                return;
+            }
+            insertAt(count, key);
+        }
+
+        private void insertAt(int index, int key) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+            }
+            System.arraycopy(keys, index, keys, index + 1, count - index);
+            keys[index] = key;
+            count++;
+        }
+
+        void remove(int key) {
+            int index = Arrays.binarySearch(keys, 0, count, key);
+            if (index >= 0) {
+                System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+                count--;
+            }
+        }
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String text, int index) {
+        return (long) text.charAt(index) << 32 | (long) text.charAt(index + 1) << 16 | text.charAt(index + 2);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Adds the key with its fields, or replaces the fields it had
+    void put(int key, String... fields) {
+        remove(key);
+        StringBuilder joined = new StringBuilder();
+        for (String field : fields) {
+            joined.append(SEPARATOR).append(normalize(field));
+        }
+        String text = joined.toString();
+        if (key >= textByKey.length) {
+            textByKey = Arrays.copyOf(textByKey, Math.max(key + 1, textByKey.length * 3 / 2 + 16));
+        }
+        textByKey[key] = text;
+        size++;
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            postingsByTrigram.computeIfAbsent(trigram(text, i), t -> new Postings()).add(key);
+        }
+    }
+
+    void remove(int key) {
+        if (key < 0 || key >= textByKey.length || textByKey[key] == null) {
+            return;
+        }
+        String text = textByKey[key];
+        textByKey[key] = null;
+        size--;
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            long trigram = trigram(text, i);
+            Postings postings = postingsByTrigram.get(trigram);
+            if (postings != null) {
+                postings.remove(key);
+                if (postings.count == 0) {
+                    postingsByTrigram.remove(trigram);
+                }
+            }
+        }
+    }
+
+    // Keys whose fields match the query, ignoring case. An empty query matches every key.
+    BitSet search(String query, Mode mode) {
+        String text = normalize(query);
+        String wanted = mode == Mode.PREFIX ? SEPARATOR + text : text;
+        BitSet matches = new BitSet();
+        if (text.length() < 3) {
+            for (int key = 0; key < textByKey.length; key++) {
+                if (textByKey[key] != null && textByKey[key].contains(wanted)) {
+                    matches.set(key);
+                }
+            }
+            return matches;
+        }
+
+        // The candidates are the keys in every posting of the query's trigrams, from the shortest posting
+        Postings[] postings = new Postings[text.length() - 2];
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = postingsByTrigram.get(trigram(text, i));
+            if (postings[i] == null) {
+                return matches;
+            }
+        }
+        Arrays.sort(postings, (a, b) -> Integer.compare(a.count, b.count));
+        Postings shortest = postings[0];
+        for (int i = 0; i < shortest.count; i++) {
+            int key = shortest.keys[i];
+            boolean candidate = true;
+            for (int p = 1; p < postings.length && candidate; p++) {
+                candidate = Arrays.binarySearch(postings[p].keys, 0, postings[p].count, key) >= 0;
+            }
+            // The trigrams may be in different places, so the text itself is checked
+            if (candidate && textByKey[key].contains(wanted)) {
+                matches.set(key);
+            }
+        }
+        return matches;
+    }
+}
+
+// Sorted index of the terms of entities with dense int keys, such as IDs and names, for prefix lookups. A
+// name is also found by the start of each of its words, so "smi" finds "Alice Smith". A lookup costs a
+// search in the tree and then one step per term returned, however many terms there are. Not thread safe,
+// the StudentManagementSystem guards it with its lock.
+final class PrefixIndex {
+    // Keys by lower cased term
+    private final TreeMap<String, int[]> keysByTerm = new TreeMap<>();
+
+    // Terms of each key, to remove them again
+    private String[][] termsByKey = new String[0][];
+
+    // Adds the key with its terms, or replaces the terms it had
+    void put(int key, String... values) {
+        remove(key);
+        Set<String> terms = new LinkedHashSet<>();
+        for (String value : values) {
+            if (value == null) {
+                continue;
+            }
+            String term = value.toLowerCase(Locale.ROOT).trim();
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+            for (int space = term.indexOf(' '); space >= 0; space = term.indexOf(' ', space + 1)) {
+                String rest = term.substring(space + 1).trim();
+                if (!rest.isEmpty()) {
+                    terms.add(rest);
+                }
+            }
+        }
+        if (key >= termsByKey.length) {
+            termsByKey = Arrays.copyOf(termsByKey, Math.max(key + 1, termsByKey.length * 3 / 2 + 16));
+        }
+        termsByKey[key] = terms.toArray(new String[0]);
+        for (String term : termsByKey[key]) {
+            int[] keys = keysByTerm.get(term);
+            if (keys == null) {
+                keysByTerm.put(term, new int[] { key });
+            } else {
+                int[] grown = Arrays.copyOf(keys, keys.length + 1);
+                grown[keys.length] = key;
+                keysByTerm.put(term, grown);
+            }
+        }
+    }
+
+    void remove(int key) {
+        if (key < 0 || key >= termsByKey.length || termsByKey[key] == null) {
+            return;
+        }
+        for (String term : termsByKey[key]) {
+            int[] keys = keysByTerm.get(term);
+            if (keys.length == 1) {
+                keysByTerm.remove(term);
+            } else {
+                int[] shrunk = new int[keys.length - 1];
+                int n = 0;
+                for (int other : keys) {
+                    if (other != key) {
+                        shrunk[n++] = other;
+                    }
+                }
+                keysByTerm.put(term, shrunk);
+            }
+        }
+        termsByKey[key] = null;
+    }
+
+    // Up to limit distinct keys with a term that starts with the prefix, ignoring case, in term order
+    int[] find(String prefix, int limit) {
+        String from = prefix.toLowerCase(Locale.ROOT).trim();
+        Set<Integer> found = new LinkedHashSet<>();
+        if (!from.isEmpty()) {
+            search:
+            for (int[] keys : keysByTerm.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+                for (int key : keys) {
+                    found.add(key);
+                    if (found.size() >= limit) {
+                        break search;
+                    }
+                }
+            }
+        }
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
+
+// Students and modules whose indexed fields matched a query, and the query itself for the columns that are
+// not indexed, such as grades and statuses. The matches no longer change once made.
+final class SearchMatches {
+    // Values of the columns that are not indexed repeat a lot, so their results are kept up to this many
+    private static final int MAX_REMEMBERED_VALUES = 4096;
+
+    private final String text;
+    private final TextSearchIndex.Mode mode;
+    private final BitSet students;
+    private final BitSet modules;
+    private final Map<Object, Boolean> valueMatches = new ConcurrentHashMap<>();
+
+    SearchMatches(String query, TextSearchIndex.Mode mode, BitSet students, BitSet modules) {
+        this.text = query.toLowerCase(Locale.ROOT);
+        this.mode = mode;
+        this.students = students;
+        this.modules = modules;
+    }
+
+    public boolean matches(Student student) {
+        return student.getKey() >= 0 && students.get(student.getKey());
+    }
+
+    public boolean matches(Module module) {
+        return module.getKey() >= 0 && modules.get(module.getKey());
+    }
+
+    // Matches the value as the table shows it, for the columns that are not indexed
+    public boolean matchesValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        Boolean remembered = valueMatches.get(value);
+        if (remembered != null) {
+            return remembered;
+        }
+        String shown = value.toString().toLowerCase(Locale.ROOT);
+        boolean matches = mode == TextSearchIndex.Mode.PREFIX ? shown.startsWith(text) : shown.contains(text);
+        if (valueMatches.size() < MAX_REMEMBERED_VALUES) {
+            valueMatches.put(value, matches);
+        }
+        return matches;
+    }
+
+    public int getStudentCount() {
+        return students.cardinality();
+    }
+
+    public int getModuleCount() {
+        return modules.cardinality();
+    }
+}
+
+// Row filter of a LiveTableModel that asks the search indexes of the StudentManagementSystem. The search is
+// done again once the data has changed, so the filter stays right for rows added or edited while it is on.
+class SearchRowFilter extends RowFilter<TableModel, Integer> {
+    private final StudentManagementSystem sms;
+    private final LiveTableModel<?, ?> model;
+    private final String query;
+    private final TextSearchIndex.Mode mode;
+
+    private SearchMatches matches;
+    private StoreVersion searchedVersion;
+
+    public SearchRowFilter(StudentManagementSystem sms, LiveTableModel<?, ?> model, String query,
+            TextSearchIndex.Mode mode) {
+        this.sms = sms;
+        this.model = model;
+        this.query = query;
+        this.mode = mode;
+    }
+
+    @Override
+    public boolean include(Entry<? extends TableModel, ? extends Integer> entry) {
+        StoreVersion current = sms.getCurrentVersion();
+        if (matches == null || current != searchedVersion) {
+            searchedVersion = current;
+            matches = sms.search(query, mode);
+        }
+        return model.rowMatches(entry.getIdentifier(), matches);
+    }
+}
+
+// Shows the students or modules whose ID or name starts with what is typed in a text field, in a list
+// under it. The list is looked up once typing pauses for DELAY_MS, not on every key. Up and Down move
+// through the list, Enter or a click puts the ID of the chosen one in the field, Escape hides the list.
+// Enter and Escape work as usual in the dialog while no suggestion is chosen.
+class TypeAhead<T> {
+    static final int DELAY_MS = 150;
+    static final int MAX_SUGGESTIONS = 10;
+
+    private final JTextField field;
+    private final BiFunction<String, Integer, List<T>> source;
+    private final Function<T, String> valueOf;
+    private final DefaultListModel<T> suggestions = new DefaultListModel<>();
+    private final JList<T> list = new JList<>(suggestions);
+    private final Timer timer;
+    private JWindow popup;
+
+    // Set while a suggestion is written into the field, so that does not look it up again
+    private boolean accepting;
+
+    private TypeAhead(JTextField field, BiFunction<String, Integer, List<T>> source, Function<T, String> valueOf) {
+        this.field = field;
+        this.source = source;
+        this.valueOf = valueOf;
+
+        timer = new Timer(DELAY_MS, e -> update());
+        timer.setRepeats(false);
+
+        list.setFocusable(false);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = list.locationToIndex(e.getPoint());
+                if (index >= 0) {
+                    accept(suggestions.get(index));
+                }
+            }
+        });
+
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                typed();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                typed();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                timer.stop();
+                hide();
+            }
+        });
+
+        bind("typeAheadDown", KeyEvent.VK_DOWN, false, () -> move(1));
+        bind("typeAheadUp", KeyEvent.VK_UP, false, () -> move(-1));
+        bind("typeAheadAccept", KeyEvent.VK_ENTER, true, () -> accept(list.getSelectedValue()));
+        bind("typeAheadHide", KeyEvent.VK_ESCAPE, false, this::hide);
+    }
+
+    // Suggests students by ID and name, and puts the ID in the field
+    static TypeAhead<Student> forStudents(JTextField field, StudentManagementSystem sms) {
+        return new TypeAhead<>(field, sms::suggestStudents, Student::getId);
+    }
+
+    static TypeAhead<Module> forModules(JTextField field, StudentManagementSystem sms) {
+        return new TypeAhead<>(field, sms::suggestModules, Module::getId);
+    }
+
+    // The key only does something while the list shows, and with a suggestion chosen when needsSelection
+    private void bind(String name, int keyCode, boolean needsSelection, Runnable action) {
+        field.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(keyCode, 0), name);
+        field.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public boolean isEnabled() {
+                return isShowing() && (!needsSelection || list.getSelectedIndex() >= 0);
+            }
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
+    }
+
+    private void typed() {
+        if (!accepting) {
+            timer.restart();
+        }
+    }
+
+    private boolean isShowing() {
+        return popup != null && popup.isVisible();
+    }
+
+    private void update() {
+        String text = field.getText().trim();
+        if (text.isEmpty() || !field.isShowing()) {
+            hide();
+            return;
+        }
+        List<T> found = source.apply(text, MAX_SUGGESTIONS);
+        suggestions.clear();
+        found.forEach(suggestions::addElement);
+        if (found.isEmpty()) {
+            hide();
+            return;
+        }
+        show();
+    }
+
+    private void show() {
+        Window owner = SwingUtilities.getWindowAncestor(field);
+        if (popup == null || popup.getOwner() != owner) {
+            popup = new JWindow(owner);
+            popup.setFocusableWindowState(false);
+            popup.getContentPane().add(new JScrollPane(list));
+        }
+        list.setVisibleRowCount(Math.min(suggestions.size(), MAX_SUGGESTIONS));
+        list.clearSelection();
+        popup.pack();
+        popup.setSize(Math.max(field.getWidth(), popup.getWidth()), popup.getHeight());
+        Point below = field.getLocationOnScreen();
+        popup.setLocation(below.x, below.y + field.getHeight());
+        popup.setVisible(true);
+    }
+
+    private void hide() {
+        if (popup != null) {
+            popup.setVisible(false);
+        }
+    }
+
+    private void move(int step) {
+        int index = Math.max(0, Math.min(suggestions.size() - 1, list.getSelectedIndex() + step));
+        list.setSelectedIndex(index);
+        list.ensureIndexIsVisible(index);
+    }
+
+    private void accept(T item) {
+        if (item == null) {
+            return;
+        }
+        accepting = true;
+        try {
+            field.setText(valueOf.apply(item));
+        } finally {
+            accepting = false;
+        }
+        hide();
+    }
+}
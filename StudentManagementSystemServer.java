@@ -0,0 +1,800 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the server mode of the application. It serves the
+ *              students, modules, grades, enrollments and dashboard as paged JSON over
+ *              HTTP and takes changes to them, so other systems can use the data without
+ *              the GUI. It also contains the JSON writer and the load test client.
+ *
+*/
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// HTTP/JSON API over a StudentManagementSystem. Reads are served from one StoreVersion per request without
+// taking the lock, changes run one at a time on a single editing thread, which also starts the saves.
+//
+//   GET    /students, /modules, /grades, /enrollments, /dashboard   ?limit=100&cursor=<next of the last page>
+//   POST   /students     id, name, email
+//   POST   /modules      id, name, teacher, semester
+//   POST   /grades       student, module, grade        adds the grade or updates the existing one
+//   POST   /enrollments  student, module
+//   DELETE /enrollments  student, module
+//
+// Parameters are read from the query string and from a form encoded body.
+class StudentManagementSystemServer {
+    public static final int DEFAULT_PORT = 8080;
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 10_000;
+
+    private static final int BACKLOG = 4096;
+    private static final int MIN_REQUEST_THREADS = 16;
+    private static final int MAX_BODY_SIZE = 1 << 16;
+    private static final long AUTOSAVE_SECONDS = 30;
+
+    private final StudentManagementSystem sms;
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final ExecutorService editor;
+    private final PersistenceService persistence;
+
+    // Without a journal the changes are kept in memory only
+    public StudentManagementSystemServer(StudentManagementSystem sms, DatabaseJournal journal, int port)
+            throws IOException {
+        this.sms = sms;
+        editor = Executors.newSingleThreadExecutor(task -> newDaemonThread(task, "api-editor"));
+        persistence = journal == null ? null : new PersistenceService(journal, editor, AUTOSAVE_SECONDS);
+        requests = newRequestExecutor();
+
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.setExecutor(requests);
+        server.createContext("/students", exchange -> handle(exchange, this::students));
+        server.createContext("/modules", exchange -> handle(exchange, this::modules));
+        server.createContext("/grades", exchange -> handle(exchange, this::grades));
+        server.createContext("/enrollments", exchange -> handle(exchange, this::enrollments));
+        server.createContext("/dashboard", exchange -> handle(exchange, this::dashboard));
+    }
+
+    // A virtual thread per request when the JDK has them, otherwise a fixed pool with a bounded queue.
+    // When the queue is full the dispatcher thread serves the request itself, so new connections wait
+    // in the socket backlog instead of piling up threads.
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            int threads = Math.max(MIN_REQUEST_THREADS, 4 * Runtime.getRuntime().availableProcessors());
+            return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(BACKLOG),
+                    task -> newDaemonThread(task, "api-request-" + count.incrementAndGet()),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    private static Thread newDaemonThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Stops taking requests, then saves and closes the journal. Throws the error of the last save, or else
+    // that of closing the journal.
+    public void stop() throws IOException {
+        server.stop(1);
+        requests.shutdown();
+        IOException error = null;
+        try {
+            if (persistence != null) {
+                editor.submit(persistence::save).get().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            error = cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        }
+        try {
+            if (persistence != null) {
+                persistence.close();
+            }
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            } else {
+                error.addSuppressed(e);
+            }
+        } finally {
+            editor.shutdown();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private interface Endpoint {
+        void handle(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException;
+    }
+
+    // A request that cannot be served, answered with the status and message
+    private static final class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+    }
+
+    private static void handle(HttpExchange exchange, Endpoint endpoint) {
+        try {
+            // The context also matches longer paths, only the exact one is served
+            if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath())) {
+                throw new RequestException(404, "Not found");
+            }
+            endpoint.handle(exchange, readParams(exchange));
+        } catch (RequestException e) {
+            sendError(exchange, e.getStatus(), e.getMessage());
+        } catch (IOException e) {
+            // The client went away, nothing left to answer
+        } catch (RuntimeException e) {
+            sendError(exchange, 500, "Internal error: " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            byte[] body = ("{\"error\":" + JsonWriter.quote(message) + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException e) {
+            // The headers were already sent or the client went away
+        }
+    }
+
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException, RequestException {
+        Map<String, String> params = new HashMap<>();
+        parseParams(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] bytes = body.readNBytes(MAX_BODY_SIZE + 1);
+            if (bytes.length > MAX_BODY_SIZE) {
+                throw new RequestException(413, "Request body too large");
+            }
+            parseParams(new String(bytes, StandardCharsets.UTF_8).trim(), params);
+        }
+        return params;
+    }
+
+    private static void parseParams(String encoded, Map<String, String> params) throws RequestException {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        try {
+            for (String pair : encoded.split("&")) {
+                int equals = pair.indexOf('=');
+                String name = equals < 0 ? pair : pair.substring(0, equals);
+                String value = equals < 0 ? "" : pair.substring(equals + 1);
+                params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                        URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, "Bad parameter encoding");
+        }
+    }
+
+    private static String requireParam(Map<String, String> params, String name) throws RequestException {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new RequestException(400, "Missing parameter: " + name);
+        }
+        return value.trim();
+    }
+
+    private static void requireMethod(HttpExchange exchange, String... methods) throws RequestException {
+        if (!Arrays.asList(methods).contains(exchange.getRequestMethod())) {
+            throw new RequestException(405, "Method not allowed: " + exchange.getRequestMethod());
+        }
+    }
+
+    // Runs a change on the editing thread and waits for it, changes from all requests are applied in turn
+    private <T> T edit(Callable<T> change) throws RequestException {
+        try {
+            return editor.submit(change).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(503, "Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RequestException) {
+                throw (RequestException) e.getCause();
+            }
+            // Rejected by the store, such as a student or module that is no longer there
+            if (e.getCause() instanceof IllegalArgumentException) {
+                throw new RequestException(400, e.getCause().getMessage());
+            }
+            throw new RequestException(500, "Internal error: " + e.getCause());
+        }
+    }
+
+    private Student findStudent(String id) throws RequestException {
+        Optional<Student> student = sms.getStudentById(id);
+        if (!student.isPresent()) {
+            throw new RequestException(404, "Unknown student: " + id);
+        }
+        return student.get();
+    }
+
+    private Module findModule(String id) throws RequestException {
+        Optional<Module> module = sms.getModuleById(id);
+        if (!module.isPresent()) {
+            throw new RequestException(404, "Unknown module: " + id);
+        }
+        return module.get();
+    }
+
+    // Students
+
+    private void students(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+        requireMethod(exchange, "GET", "POST");
+        if (exchange.getRequestMethod().equals("POST")) {
+            String id = requireParam(params, "id");
+            String name = requireParam(params, "name");
+            String email = requireParam(params, "email");
+            Student student = edit(() -> {
+                if (sms.getStudentById(id).isPresent()) {
+                    throw new RequestException(409, "Student ID already exists: " + id);
+                }
+                Student added = new Student(name, id, email);
+                sms.addStudent(added);
+                return added;
+            });
+            StoreVersion version = sms.getCurrentVersion();
+            try (JsonWriter json = startResponse(exchange, 201)) {
+                writeStudent(json, version.getStudent(student.getKey()));
+            }
+            return;
+        }
+
+        StoreVersion version = sms.getCurrentVersion();
+        Page page = new Page(params, 1);
+        try (JsonWriter json = startPage(exchange, version)) {
+            version.visitStudents(page.from(0), (key, student) -> {
+                if (page.isFull()) {
+                    page.setNext(key);
+                    return false;
+                }
+                page.add();
+                writeStudent(json, student);
+                return true;
+            });
+            endPage(json, page);
+        }
+    }
+
+    private static void writeStudent(JsonWriter json, StudentRecord student) {
+        json.beginObject();
+        json.name("id").value(student.getId());
+        json.name("name").value(student.getName());
+        json.name("email").value(student.getEmail());
+        json.endObject();
+    }
+
+    // Modules
+
+    private void modules(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+        requireMethod(exchange, "GET", "POST");
+        if (exchange.getRequestMethod().equals("POST")) {
+            String id = requireParam(params, "id");
+            String name = requireParam(params, "name");
+            String teacher = requireParam(params, "teacher");
+            String semester = requireParam(params, "semester");
+            Module module = edit(() -> {
+                if (sms.getModuleById(id).isPresent()) {
+                    throw new RequestException(409, "Module ID already exists: " + id);
+                }
+                Module added = new Module(name, id, teacher, semester);
+                sms.addModule(added);
+                return added;
+            });
+            StoreVersion version = sms.getCurrentVersion();
+            try (JsonWriter json = startResponse(exchange, 201)) {
+                writeModule(json, version.getModule(module.getKey()));
+            }
+            return;
+        }
+
+        StoreVersion version = sms.getCurrentVersion();
+        Page page = new Page(params, 1);
+        try (JsonWriter json = startPage(exchange, version)) {
+            version.visitModules(page.from(0), (key, module) -> {
+                if (page.isFull()) {
+                    page.setNext(key);
+                    return false;
+                }
+                page.add();
+                writeModule(json, module);
+                return true;
+            });
+            endPage(json, page);
+        }
+    }
+
+    private static void writeModule(JsonWriter json, ModuleRecord module) {
+        json.beginObject();
+        json.name("id").value(module.getId());
+        json.name("name").value(module.getName());
+        json.name("teacher").value(module.getTeacher());
+        json.name("semester").value(module.getSemester());
+        json.endObject();
+    }
+
+    // Grades
+
+    private void grades(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+        requireMethod(exchange, "GET", "POST");
+        if (exchange.getRequestMethod().equals("POST")) {
+            String studentId = requireParam(params, "student");
+            String moduleId = requireParam(params, "module");
+            double value;
+            try {
+                value = Double.parseDouble(requireParam(params, "grade"));
+            } catch (NumberFormatException e) {
+                throw new RequestException(400, "Bad grade: " + params.get("grade"));
+            }
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new RequestException(400, "Bad grade: " + params.get("grade"));
+            }
+            boolean[] added = new boolean[1];
+            Grade grade = edit(() -> {
+                Student student = findStudent(studentId);
+                Module module = findModule(moduleId);
+                Optional<Grade> existing = sms.findGrade(student, module);
+                if (existing.isPresent()) {
+                    sms.updateGrade(existing.get(), value);
+                    return existing.get();
+                }
+                sms.addGrade(student, module, value);
+                added[0] = true;
+                return sms.findGrade(student, module).get();
+            });
+            try (JsonWriter json = startResponse(exchange, added[0] ? 201 : 200)) {
+                writeGrade(json, studentId, moduleId, grade.getGrade());
+            }
+            return;
+        }
+
+        StoreVersion version = sms.getCurrentVersion();
+        Page page = new Page(params, 2);
+        try (JsonWriter json = startPage(exchange, version)) {
+            version.visitGrades(page.from(0), page.from(1), (key, grade) -> {
+                if (page.isFull()) {
+                    page.setNext(grade.getStudentKey(), key);
+                    return false;
+                }
+                page.add();
+                writeGrade(json, version.getStudent(grade.getStudentKey()).getId(),
+                        version.getModule(grade.getModuleKey()).getId(), grade.getGrade());
+                return true;
+            });
+            endPage(json, page);
+        }
+    }
+
+    private static void writeGrade(JsonWriter json, String studentId, String moduleId, double grade) {
+        json.beginObject();
+        json.name("student").value(studentId);
+        json.name("module").value(moduleId);
+        json.name("grade").value(grade);
+        json.endObject();
+    }
+
+    // Enrollments
+
+    private void enrollments(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+        requireMethod(exchange, "GET", "POST", "DELETE");
+        if (!exchange.getRequestMethod().equals("GET")) {
+            String studentId = requireParam(params, "student");
+            String moduleId = requireParam(params, "module");
+            boolean enroll = exchange.getRequestMethod().equals("POST");
+            boolean changed = edit(() -> {
+                Student student = findStudent(studentId);
+                Module module = findModule(moduleId);
+                return enroll ? sms.enrollStudentInModule(student, module)
+                        : sms.unenrollStudentFromModule(student, module);
+            });
+            try (JsonWriter json = startResponse(exchange, changed && enroll ? 201 : 200)) {
+                json.beginObject();
+                json.name("student").value(studentId);
+                json.name("module").value(moduleId);
+                json.name("enrolled").value(enroll);
+                json.name("changed").value(changed);
+                json.endObject();
+            }
+            return;
+        }
+
+        StoreVersion version = sms.getCurrentVersion();
+        Page page = new Page(params, 2);
+        try (JsonWriter json = startPage(exchange, version)) {
+            version.visitEnrollments(page.from(0), page.from(1), (studentKey, module) -> {
+                if (page.isFull()) {
+                    page.setNext(studentKey, module.getKey());
+                    return false;
+                }
+                page.add();
+                json.beginObject();
+                json.name("student").value(version.getStudent(studentKey).getId());
+                json.name("module").value(module.getId());
+                json.endObject();
+                return true;
+            });
+            endPage(json, page);
+        }
+    }
+
+    // Dashboard, the cursor is the student key and the index of the row within the student
+
+    private void dashboard(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+        requireMethod(exchange, "GET");
+        StoreVersion version = sms.getCurrentVersion();
+        Page page = new Page(params, 2);
+        try (JsonWriter json = startPage(exchange, version)) {
+            version.visitStudents(page.from(0), (studentKey, student) -> {
+                int firstRow = studentKey == page.from(0) ? page.from(1) : 0;
+                int[] row = new int[1];
+                boolean[] stopped = new boolean[1];
+                version.forEachDashboardRowOfStudent(student, (s, module, grade, enrolled) -> {
+                    int index = row[0]++;
+                    if (stopped[0] || index < firstRow) {
+                        return;
+                    }
+                    if (page.isFull()) {
+                        page.setNext(studentKey, index);
+                        stopped[0] = true;
+                        return;
+                    }
+                    page.add();
+                    Double gradeValue = grade == null ? null : grade.getGrade();
+                    json.beginObject();
+                    json.name("studentId").value(student.getId());
+                    json.name("student").value(student.getName());
+                    json.name("moduleId").value(module.getId());
+                    json.name("module").value(module.getName());
+                    json.name("grade").value(gradeValue);
+                    json.name("status").value(DashboardRow.getStatus(gradeValue, enrolled));
+                    json.name("enrolled").value(enrolled);
+                    json.endObject();
+                });
+                return !stopped[0];
+            });
+            endPage(json, page);
+        }
+    }
+
+    // Pages
+
+    // Limit and cursor of a page being written. The cursor holds the keys of the first item, as many
+    // as the listing has levels, and the next cursor is set when the page fills up before the end.
+    private static final class Page {
+        private final int limit;
+        private final int[] from;
+        private int count;
+        private String next;
+
+        Page(Map<String, String> params, int levels) throws RequestException {
+            from = new int[levels];
+            try {
+                limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_PAGE_SIZE)));
+                String cursor = params.get("cursor");
+                if (cursor != null) {
+                    String[] parts = cursor.split("\\.");
+                    if (parts.length != levels) {
+                        throw new NumberFormatException();
+                    }
+                    for (int i = 0; i < levels; i++) {
+                        from[i] = Integer.parseInt(parts[i]);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new RequestException(400, "Bad limit or cursor");
+            }
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                throw new RequestException(400, "The limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+        }
+
+        int from(int level) {
+            return from[level];
+        }
+
+        boolean isFull() {
+            return count == limit;
+        }
+
+        void add() {
+            count++;
+        }
+
+        void setNext(int... keys) {
+            StringBuilder cursor = new StringBuilder();
+            for (int key : keys) {
+                if (cursor.length() > 0) {
+                    cursor.append('.');
+                }
+                cursor.append(key);
+            }
+            next = cursor.toString();
+        }
+    }
+
+    private static JsonWriter startResponse(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        // Length 0 sends the body in chunks, it is written as it is produced
+        exchange.sendResponseHeaders(status, 0);
+        return new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 14));
+    }
+
+    private static JsonWriter startPage(HttpExchange exchange, StoreVersion version) throws IOException {
+        JsonWriter json = startResponse(exchange, 200);
+        json.beginObject();
+        json.name("version").value(version.getVersion());
+        json.name("items").beginArray();
+        return json;
+    }
+
+    private static void endPage(JsonWriter json, Page page) {
+        json.endArray();
+        json.name("count").value(page.count);
+        json.name("next").value(page.next);
+        json.endObject();
+    }
+}
+
+// Writes JSON straight to a Writer. Like PrintWriter it does not throw, the first error is kept and
+// everything after it is dropped, close() throws it.
+class JsonWriter implements Closeable {
+    private final Writer out;
+    private IOException error;
+    private boolean needsComma;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() {
+        separate();
+        write("{");
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        write("}");
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separate();
+        write("[");
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        write("]");
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        separate();
+        write(quote(name));
+        write(":");
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        return literal(value == null ? "null" : quote(value));
+    }
+
+    public JsonWriter value(Double value) {
+        return literal(value == null ? "null" : value.toString());
+    }
+
+    public JsonWriter value(double value) {
+        return literal(Double.toString(value));
+    }
+
+    public JsonWriter value(long value) {
+        return literal(Long.toString(value));
+    }
+
+    public JsonWriter value(boolean value) {
+        return literal(value ? "true" : "false");
+    }
+
+    private JsonWriter literal(String text) {
+        separate();
+        write(text);
+        needsComma = true;
+        return this;
+    }
+
+    private void separate() {
+        if (needsComma) {
+            write(",");
+        }
+    }
+
+    private void write(String text) {
+        if (error != null) {
+            return;
+        }
+        try {
+            out.write(text);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
+
+// Load test client for the server on this machine. Keeps the given number of requests open at once,
+// spread over the read endpoints, and reports the throughput and the response times.
+class ApiLoadTest {
+    private static final String[] PATHS = { "/students?limit=50", "/modules?limit=50", "/grades?limit=100",
+            "/enrollments?limit=100", "/dashboard?limit=100" };
+
+    private final int port;
+    private final int clients;
+    private final int requestCount;
+
+    public ApiLoadTest(int port, int clients, int requestCount) {
+        this.port = port;
+        this.clients = clients;
+        this.requestCount = requestCount;
+    }
+
+    // Returns the number of failed requests
+    public int run(PrintWriter out) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        Semaphore open = new Semaphore(clients);
+        long[] latencies = new long[requestCount];
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requestCount];
+        for (int i = 0; i < requestCount; i++) {
+            open.acquire();
+            int request = i;
+            HttpRequest httpRequest = HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + port + PATHS[i % PATHS.length]))
+                    .timeout(Duration.ofSeconds(60))
+                    .build();
+            long sent = System.nanoTime();
+            futures[i] = client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofByteArray())
+                    .whenComplete((response, error) -> {
+                        latencies[request] = System.nanoTime() - sent;
+                        if (error != null || response.statusCode() != 200) {
+                            failures.incrementAndGet();
+                        } else {
+                            bytes.addAndGet(response.body().length);
+                        }
+                        open.release();
+                    });
+        }
+        CompletableFuture.allOf(futures).exceptionally(error -> null).join();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        out.printf("%d requests, %d at once, %d failed, %.1f s, %.0f requests/s, %.1f MB%n", requestCount, clients,
+                failures.get(), elapsed / 1e9, requestCount / (elapsed / 1e9), bytes.get() / 1e6);
+        out.printf("Response time ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n", percentile(latencies, 50),
+                percentile(latencies, 90), percentile(latencies, 99), latencies[latencies.length - 1] / 1e6);
+        return failures.get();
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        int index = (int) Math.min(sorted.length - 1, (long) sorted.length * percent / 100);
+        return sorted[index] / 1e6;
+    }
+}
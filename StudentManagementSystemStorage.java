@@ -0,0 +1,1819 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the helpers used to read and write the database
+ *              files of the StudentManagementSystem, such as the CSV line tokenizer,
+ *              the report produced when a file is loaded, the parallel loader
+ *              used for very large files, the CSV writer, the binary snapshot format
+ *              and the change journal.
+ *
+*/
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Splits a database line on ", " without regex, one instance is reused for every line
+class CsvLineTokenizer {
+    private static final String SEPARATOR = ", ";
+
+    private String line;
+    private int position;
+
+    public CsvLineTokenizer reset(String line) {
+        this.line = line;
+        this.position = 0;
+        return this;
+    }
+
+    // Next field of the line, or null when the line has no more fields.
+    // Like String.split, an empty last field counts as missing but empty fields before it do not.
+    public String next() {
+        if (position < 0 || position > line.length()) {
+            return null;
+        }
+        int end = line.indexOf(SEPARATOR, position);
+        if (end < 0) {
+            String field = line.substring(position);
+            position = -1;
+            return field.isEmpty() ? null : field;
+        }
+        String field = line.substring(position, end);
+        position = end + SEPARATOR.length();
+        return field;
+    }
+}
+
+// Result of loading a database file, malformed lines are reported with their line numbers. It only collects
+// them, showing them is left to the caller.
+class LoadReport {
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final String fileName;
+    private final List<String> errors;
+    private int errorCount;
+    private int lineCount;
+    private IOException failure;
+
+    public LoadReport(String fileName) {
+        this.fileName = fileName;
+        this.errors = new ArrayList<>();
+    }
+
+    public void error(int lineNumber, String line, String reason) {
+        error("Error processing line " + lineNumber + ": " + line + " (" + reason + ")");
+    }
+
+    // An error that is not about one line, such as a damaged snapshot or journal
+    public void error(String message) {
+        errorCount++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(message);
+        }
+    }
+
+    // The file could not be read to the end, what was read before is kept
+    public void fail(IOException e) {
+        failure = e;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean hasErrors() {
+        return errorCount > 0 || failure != null;
+    }
+
+    // Null when the whole file was read
+    public IOException getFailure() {
+        return failure;
+    }
+
+    public boolean hasFailed() {
+        return failure != null;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    // The first errors only, getErrorCount counts them all
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public void setLineCount(int lineCount) {
+        this.lineCount = lineCount;
+    }
+
+    @Override
+    public String toString() {
+        return fileName + ": " + lineCount + " lines, " + errorCount + " errors"
+                + (failure != null ? ", failed: " + failure.getMessage() : "");
+    }
+}
+
+// Receives the fields of each parsed database line
+interface DatabaseLineHandler {
+    void student(String id, String name, String email);
+
+    void module(String id, String name, String teacher, String semester);
+
+    void grade(String studentId, String moduleId, double value);
+
+    void enrollment(String studentId, String moduleId);
+}
+
+// Parses the lines of database.csv, shared by the sequential and the parallel loader
+class DatabaseLineParser {
+
+    public static boolean isSectionHeader(String line) {
+        return line.equals("Students") || line.equals("Modules") || line.equals("Grades")
+                || line.equals("Enrollments");
+    }
+
+    // Passes the fields of one line to the handler, returns the reason the line is malformed or null
+    public static String parseLine(String section, String line, CsvLineTokenizer tokenizer,
+            DatabaseLineHandler handler) {
+        tokenizer.reset(line);
+        String first = tokenizer.next();
+        String second = tokenizer.next();
+
+        try {
+            return parseFields(section, first, second, tokenizer, handler);
+        } catch (IllegalArgumentException e) {
+            // Rejected by the store, such as a duplicate ID
+            return e.getMessage();
+        }
+    }
+
+    private static String parseFields(String section, String first, String second, CsvLineTokenizer tokenizer,
+            DatabaseLineHandler handler) {
+        switch (section) {
+            case "Students": {
+                String email = tokenizer.next();
+                if (email == null) {
+                    return "expected ID, name, email";
+                }
+                handler.student(first, second, email);
+                return null;
+            }
+            case "Modules": {
+                String teacher = tokenizer.next();
+                String semester = tokenizer.next();
+                if (semester == null) {
+                    return "expected ID, name, teacher, semester";
+                }
+                handler.module(first, second, teacher, semester);
+                return null;
+            }
+            case "Enrollments": {
+                if (second == null) {
+                    return "expected student ID, module ID";
+                }
+                handler.enrollment(first, second);
+                return null;
+            }
+            case "Grades": {
+                String value = tokenizer.next();
+                if (value == null) {
+                    return "expected student ID, module ID, grade";
+                }
+                try {
+                    handler.grade(first, second, Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    return "invalid grade " + value;
+                }
+                return null;
+            }
+            default:
+                return "line is outside of a section";
+        }
+    }
+}
+
+// Loads very large database files: the file is memory-mapped, the section headers are located,
+// and each section is split into line-aligned chunks that are parsed on a fork/join pool.
+// Students and modules are merged first, then grades and enrollments are resolved against them,
+// always in file order, so the result is the same as StudentManagementSystem.loadFromFile.
+class ParallelDatabaseLoader {
+    private static final int CHUNK_SIZE = 8 << 20;
+    private static final String[] SECTIONS = { "Students", "Modules", "Grades", "Enrollments" };
+
+    private final ForkJoinPool pool;
+    private final Charset charset;
+
+    public ParallelDatabaseLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelDatabaseLoader(ForkJoinPool pool) {
+        this.pool = pool;
+        this.charset = Charset.defaultCharset();
+    }
+
+    // A section header line and the byte range of the content that follows it
+    private static final class Region {
+        private final String section;
+        private final long start;
+        private long end;
+
+        Region(String section, long start) {
+            this.section = section;
+            this.start = start;
+        }
+    }
+
+    // Everything parsed from one chunk, kept in file order
+    private static final class Chunk {
+        private final String section;
+        private final long start;
+        private final long end;
+        private final long regionEnd;
+        private int lineCount;
+        private final List<Integer> errorLines = new ArrayList<>();
+        private final List<String> errorTexts = new ArrayList<>();
+        private final List<String> errorReasons = new ArrayList<>();
+        private final List<Student> students = new ArrayList<>();
+        private final List<Module> modules = new ArrayList<>();
+        // Line and text of each student or module, for the errors of the merge
+        private final List<Integer> entityLines = new ArrayList<>();
+        private final List<String> entityTexts = new ArrayList<>();
+        private final List<Student> refStudents = new ArrayList<>();
+        private final List<Module> refModules = new ArrayList<>();
+        private double[] gradeValues = new double[16];
+
+        Chunk(String section, long start, long end, long regionEnd) {
+            this.section = section;
+            this.start = start;
+            this.end = end;
+            this.regionEnd = regionEnd;
+        }
+
+        void addReference(Student student, Module module, double value) {
+            int index = refStudents.size();
+            if (index == gradeValues.length) {
+                gradeValues = Arrays.copyOf(gradeValues, index * 2);
+            }
+            gradeValues[index] = value;
+            refStudents.add(student);
+            refModules.add(module);
+        }
+
+        // Keeps the errors in line order
+        void addError(int line, String text, String reason) {
+            int index = errorLines.size();
+            while (index > 0 && errorLines.get(index - 1) > line) {
+                index--;
+            }
+            errorLines.add(index, line);
+            errorTexts.add(index, text);
+            errorReasons.add(index, reason);
+        }
+    }
+
+    public LoadReport load(StudentManagementSystem sms, String fileName) {
+        LoadReport report = new LoadReport(fileName);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Region> regions = findRegions(channel, size);
+
+            // Grades or enrollments before the students and modules they refer to only resolve
+            // against what was read so far, the sequential loader handles that case
+            if (!isCanonicalOrder(regions)) {
+                return sms.loadFromFile(fileName);
+            }
+
+            List<Chunk> chunks = new ArrayList<>();
+            for (Region region : regions) {
+                for (long start = region.start; start < region.end; start += CHUNK_SIZE) {
+                    chunks.add(new Chunk(region.section, start, Math.min(region.end, start + CHUNK_SIZE),
+                            region.end));
+                }
+            }
+
+            // Students and modules first, merged in file order so duplicate IDs resolve the same way
+            List<Chunk> entityChunks = new ArrayList<>();
+            List<Chunk> referenceChunks = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                if (chunk.section.equals("Grades") || chunk.section.equals("Enrollments")) {
+                    referenceChunks.add(chunk);
+                } else {
+                    entityChunks.add(chunk);
+                }
+            }
+            sms.beginLoad();
+            try {
+                merge(channel, entityChunks, referenceChunks, sms);
+            } finally {
+                sms.endLoad();
+            }
+
+            report.setLineCount(reportErrors(regions, chunks, report));
+        } catch (IOException e) {
+            report.fail(e);
+        }
+        return report;
+    }
+
+    private void merge(FileChannel channel, List<Chunk> entityChunks, List<Chunk> referenceChunks,
+            StudentManagementSystem sms) throws IOException {
+        parseChunks(channel, entityChunks, null, null);
+        for (Chunk chunk : entityChunks) {
+            // A chunk lies in one section, so it has either students or modules
+            for (int i = 0; i < chunk.students.size(); i++) {
+                try {
+                    sms.addStudent(chunk.students.get(i));
+                } catch (IllegalArgumentException e) {
+                    chunk.addError(chunk.entityLines.get(i), chunk.entityTexts.get(i), e.getMessage());
+                }
+            }
+            for (int i = 0; i < chunk.modules.size(); i++) {
+                try {
+                    sms.addModule(chunk.modules.get(i));
+                } catch (IllegalArgumentException e) {
+                    chunk.addError(chunk.entityLines.get(i), chunk.entityTexts.get(i), e.getMessage());
+                }
+            }
+        }
+
+        // The workers resolve IDs in the indexes of sms without its lock, which this thread holds. Nothing
+        // changes the indexes while this thread waits for the workers.
+        parseChunks(channel, referenceChunks, sms.getStudentsById(), sms.getModulesById());
+        for (Chunk chunk : referenceChunks) {
+            boolean grades = chunk.section.equals("Grades");
+            for (int i = 0; i < chunk.refStudents.size(); i++) {
+                if (grades) {
+                    sms.addGrade(chunk.refStudents.get(i), chunk.refModules.get(i), chunk.gradeValues[i]);
+                } else {
+                    sms.enrollStudentInModule(chunk.refStudents.get(i), chunk.refModules.get(i));
+                }
+            }
+        }
+    }
+
+    private static boolean isCanonicalOrder(List<Region> regions) {
+        boolean referencesSeen = false;
+        for (Region region : regions) {
+            boolean references = region.section.equals("Grades") || region.section.equals("Enrollments");
+            if (referencesSeen && !references && !region.section.isEmpty()) {
+                return false;
+            }
+            referencesSeen |= references;
+        }
+        return true;
+    }
+
+    // Error line numbers are chunk-relative until every chunk has counted its lines
+    private static int reportErrors(List<Region> regions, List<Chunk> chunks, LoadReport report) {
+        int linesBefore = 0;
+        int chunkIndex = 0;
+        for (Region region : regions) {
+            if (!region.section.isEmpty()) {
+                linesBefore++;
+            }
+            while (chunkIndex < chunks.size() && chunks.get(chunkIndex).start < region.end) {
+                Chunk chunk = chunks.get(chunkIndex++);
+                for (int i = 0; i < chunk.errorLines.size(); i++) {
+                    report.error(linesBefore + chunk.errorLines.get(i), chunk.errorTexts.get(i),
+                            chunk.errorReasons.get(i));
+                }
+                linesBefore += chunk.lineCount;
+            }
+        }
+        return linesBefore;
+    }
+
+    private void parseChunks(FileChannel channel, List<Chunk> chunks, IdIndex<Student> studentsById,
+            IdIndex<Module> modulesById) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            tasks.add(() -> {
+                parseChunk(channel, chunk, studentsById, modulesById);
+                return null;
+            });
+        }
+        await(pool.invokeAll(tasks));
+    }
+
+    // Parses the lines that start inside the chunk, the last one may run past its end
+    private void parseChunk(FileChannel channel, Chunk chunk, IdIndex<Student> studentsById,
+            IdIndex<Module> modulesById) throws IOException {
+        long mapStart = chunk.start;
+        long mapEnd = findLineEnd(channel, chunk.end, chunk.regionEnd);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+        int limit = buffer.limit();
+        int ownedEnd = (int) (chunk.end - mapStart);
+
+        // Skip the tail of a line owned by the previous chunk
+        int position = 0;
+        if (chunk.start > 0 && !startsLine(channel, chunk.start)) {
+            while (position < limit && buffer.get(position) != '\n') {
+                position++;
+            }
+            position++;
+        }
+
+        CsvLineTokenizer tokenizer = new CsvLineTokenizer();
+        DatabaseLineHandler handler = new DatabaseLineHandler() {
+            @Override
+            public void student(String id, String name, String email) {
+                chunk.students.add(new Student(name, id, email));
+            }
+
+            @Override
+            public void module(String id, String name, String teacher, String semester) {
+                chunk.modules.add(new Module(name, id, teacher, semester));
+            }
+
+            @Override
+            public void grade(String studentId, String moduleId, double value) {
+                resolve(studentId, moduleId, value);
+            }
+
+            @Override
+            public void enrollment(String studentId, String moduleId) {
+                resolve(studentId, moduleId, 0);
+            }
+
+            private void resolve(String studentId, String moduleId, double value) {
+                Student student = studentsById.get(studentId);
+                Module module = modulesById.get(moduleId);
+                if (student != null && module != null) {
+                    chunk.addReference(student, module, value);
+                }
+            }
+        };
+
+        byte[] bytes = new byte[256];
+        while (position < ownedEnd && position < limit) {
+            int lineEnd = position;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int length = lineEnd - position;
+            if (length > 0 && buffer.get(lineEnd - 1) == '\r') {
+                length--;
+            }
+            chunk.lineCount++;
+
+            if (length > 0) {
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                buffer.get(position, bytes, 0, length);
+                String line = new String(bytes, 0, length, charset);
+                String error = DatabaseLineParser.parseLine(chunk.section, line, tokenizer, handler);
+                if (error != null) {
+                    chunk.errorLines.add(chunk.lineCount);
+                    chunk.errorTexts.add(line);
+                    chunk.errorReasons.add(error);
+                } else if (studentsById == null) {
+                    chunk.entityLines.add(chunk.lineCount);
+                    chunk.entityTexts.add(line);
+                }
+            }
+            position = lineEnd + 1;
+        }
+    }
+
+    // Offset just past the end of the line that runs through offset, at most limit
+    private static long findLineEnd(FileChannel channel, long offset, long limit) throws IOException {
+        if (offset >= limit || startsLine(channel, offset)) {
+            return offset;
+        }
+        ByteBuffer block = ByteBuffer.allocate(4096);
+        for (long position = offset; position < limit; position += block.limit()) {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), limit - position));
+            int read = channel.read(block, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (block.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            block.limit(read);
+        }
+        return limit;
+    }
+
+    private static boolean startsLine(FileChannel channel, long offset) throws IOException {
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        channel.read(previous, offset - 1);
+        return previous.get(0) == '\n';
+    }
+
+    // Finds the section header lines, scanning ranges of the file in parallel
+    private List<Region> findRegions(FileChannel channel, long size) throws IOException {
+        List<Callable<List<long[]>>> tasks = new ArrayList<>();
+        for (long start = 0; start < size; start += CHUNK_SIZE) {
+            long rangeStart = start;
+            long rangeEnd = Math.min(size, start + CHUNK_SIZE);
+            tasks.add(() -> findHeaders(channel, size, rangeStart, rangeEnd));
+        }
+
+        // Each header is {line start, content start, section index}
+        List<Region> regions = new ArrayList<>();
+        Region current = new Region("", 0);
+        regions.add(current);
+        for (Future<List<long[]>> future : pool.invokeAll(tasks)) {
+            for (long[] header : get(future)) {
+                current.end = header[0];
+                current = new Region(SECTIONS[(int) header[2]], header[1]);
+                regions.add(current);
+            }
+        }
+        current.end = size;
+        return regions;
+    }
+
+    private static List<long[]> findHeaders(FileChannel channel, long size, long start, long end)
+            throws IOException {
+        long mapStart = Math.max(0, start - 1);
+        long mapEnd = Math.min(size, end + 16);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+        List<long[]> headers = new ArrayList<>();
+
+        for (long offset = start; offset < end; offset++) {
+            int index = (int) (offset - mapStart);
+            if (offset > 0 && buffer.get(index - 1) != '\n') {
+                continue;
+            }
+            for (int section = 0; section < SECTIONS.length; section++) {
+                int contentIndex = matchHeader(buffer, index, SECTIONS[section]);
+                if (contentIndex >= 0) {
+                    headers.add(new long[] { offset, mapStart + contentIndex, section });
+                    break;
+                }
+            }
+        }
+        return headers;
+    }
+
+    // Index just after the header line when it starts at index, otherwise -1
+    private static int matchHeader(MappedByteBuffer buffer, int index, String header) {
+        int limit = buffer.limit();
+        if (index + header.length() > limit) {
+            return -1;
+        }
+        for (int i = 0; i < header.length(); i++) {
+            if (buffer.get(index + i) != header.charAt(i)) {
+                return -1;
+            }
+        }
+        int next = index + header.length();
+        if (next == limit) {
+            return next;
+        }
+        if (buffer.get(next) == '\r') {
+            next++;
+            if (next == limit) {
+                return next;
+            }
+        }
+        return buffer.get(next) == '\n' ? next + 1 : -1;
+    }
+
+    private static <T> void await(List<Future<T>> futures) throws IOException {
+        for (Future<T> future : futures) {
+            get(future);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
+
+// Writes files through a temporary file that is forced to disk and then renamed over the target,
+// so a failure part way through a save never leaves a truncated file behind
+class AtomicFile {
+
+    interface Content {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    public static void write(String fileName, Content content) throws IOException {
+        Path target = Paths.get(fileName).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            content.write(channel);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
+
+// Copy of the data of a StudentManagementSystem, taken on the thread that edits it so it can be
+// written to disk on another thread while editing goes on. Grades and enrollments refer to students
+// and modules by their index in the arrays.
+class DataSnapshot {
+    final String[] studentIds;
+    final String[] studentNames;
+    final String[] studentEmails;
+    final String[] moduleIds;
+    final String[] moduleNames;
+    final String[] moduleTeachers;
+    final String[] moduleSemesters;
+    final int[] gradeStudents;
+    final int[] gradeModules;
+    final double[] gradeValues;
+    final int[] enrollmentStudents;
+    final int[] enrollmentModules;
+
+    // Version of each CSV section at the time of the copy
+    final long[] sectionVersions;
+
+    // Called with the read lock of sms held, so the copy is consistent
+    DataSnapshot(StudentManagementSystem sms, long[] sectionVersions) {
+        this.sectionVersions = sectionVersions;
+        Set<Student> students = sms.getStudents();
+        Set<Module> modules = sms.getModules();
+
+        Map<Student, Integer> studentIndexes = new IdentityHashMap<>();
+        int studentCount = students.size();
+        studentIds = new String[studentCount];
+        studentNames = new String[studentCount];
+        studentEmails = new String[studentCount];
+        for (Student student : students) {
+            int i = studentIndexes.size();
+            studentIndexes.put(student, i);
+            studentIds[i] = student.getId();
+            studentNames[i] = student.getName();
+            studentEmails[i] = student.getEmail();
+        }
+
+        Map<Module, Integer> moduleIndexes = new IdentityHashMap<>();
+        int moduleCount = modules.size();
+        moduleIds = new String[moduleCount];
+        moduleNames = new String[moduleCount];
+        moduleTeachers = new String[moduleCount];
+        moduleSemesters = new String[moduleCount];
+        for (Module module : modules) {
+            int i = moduleIndexes.size();
+            moduleIndexes.put(module, i);
+            moduleIds[i] = module.getId();
+            moduleNames[i] = module.getName();
+            moduleTeachers[i] = module.getTeacher();
+            moduleSemesters[i] = module.getSemester();
+        }
+
+        // Grades grouped by student in insertion order, so the first grade of a pair stays first
+        int gradeCount = sms.getGradeCount();
+        gradeStudents = new int[gradeCount];
+        gradeModules = new int[gradeCount];
+        gradeValues = new double[gradeCount];
+        int g = 0;
+        for (Student student : students) {
+            int studentIndex = studentIndexes.get(student);
+            for (Grade grade : sms.getGradesForStudent(student)) {
+                gradeStudents[g] = studentIndex;
+                gradeModules[g] = moduleIndexes.get(grade.getModule());
+                gradeValues[g] = grade.getGrade();
+                g++;
+            }
+        }
+
+        List<Set<Module>> enrolledModules = new ArrayList<>(students.size());
+        int enrollmentCount = 0;
+        for (Student student : students) {
+            Set<Module> enrolled = sms.getEnrolledModules(student);
+            enrolledModules.add(enrolled);
+            enrollmentCount += enrolled.size();
+        }
+        enrollmentStudents = new int[enrollmentCount];
+        enrollmentModules = new int[enrollmentCount];
+        int e = 0;
+        for (Student student : students) {
+            int studentIndex = studentIndexes.get(student);
+            for (Module module : enrolledModules.get(studentIndex)) {
+                enrollmentStudents[e] = studentIndex;
+                enrollmentModules[e] = moduleIndexes.get(module);
+                e++;
+            }
+        }
+    }
+}
+
+// Writes database.csv. Each section has a version that goes up whenever its data changes, and
+// sections whose version is the same as when the file was last written are copied from that file
+// with FileChannel.transferTo instead of being serialized again.
+class CsvDatabaseWriter implements DataChangeListener {
+
+    enum Section {
+        STUDENTS("Students"), MODULES("Modules"), GRADES("Grades"), ENROLLMENTS("Enrollments");
+
+        private final String header;
+
+        Section(String header) {
+            this.header = header;
+        }
+    }
+
+    private final Charset charset;
+    private final long[] versions = new long[Section.values().length];
+
+    // Where each section's lines are in the file written last, and their versions
+    private Path lastFile;
+    private long lastSize;
+    private FileTime lastModified;
+    private final long[] sectionStarts = new long[Section.values().length];
+    private final long[] sectionEnds = new long[Section.values().length];
+    private final long[] writtenVersions = new long[Section.values().length];
+
+    public CsvDatabaseWriter() {
+        this.charset = Charset.defaultCharset();
+        Arrays.fill(writtenVersions, -1);
+    }
+
+    public long[] getSectionVersions() {
+        return versions.clone();
+    }
+
+    @Override
+    public void dataChanged(List<DataChange> changes) {
+        for (DataChange change : changes) {
+            switch (change.getType()) {
+                case STUDENT_ADDED:
+                case STUDENT_REMOVED:
+                    versions[Section.STUDENTS.ordinal()]++;
+                    break;
+                case STUDENT_UPDATED:
+                    // Grades and enrollments refer to students by ID
+                    versions[Section.STUDENTS.ordinal()]++;
+                    if (!change.getOldId().equals(change.getStudent().getId())) {
+                        versions[Section.GRADES.ordinal()]++;
+                        versions[Section.ENROLLMENTS.ordinal()]++;
+                    }
+                    break;
+                case MODULE_ADDED:
+                case MODULE_REMOVED:
+                    versions[Section.MODULES.ordinal()]++;
+                    break;
+                case MODULE_UPDATED:
+                    versions[Section.MODULES.ordinal()]++;
+                    if (!change.getOldId().equals(change.getModule().getId())) {
+                        versions[Section.GRADES.ordinal()]++;
+                        versions[Section.ENROLLMENTS.ordinal()]++;
+                    }
+                    break;
+                case ENROLLED:
+                case UNENROLLED:
+                    versions[Section.ENROLLMENTS.ordinal()]++;
+                    break;
+                case GRADE_ADDED:
+                case GRADE_REMOVED:
+                case GRADE_UPDATED:
+                    versions[Section.GRADES.ordinal()]++;
+                    break;
+                case RELOADED:
+                    for (int i = 0; i < versions.length; i++) {
+                        versions[i]++;
+                    }
+                    break;
+            }
+        }
+    }
+
+    // Saves are serialized, they may come from the editing thread or from a background writer
+    public synchronized void save(String fileName, DataSnapshot data) throws IOException {
+        Path target = Paths.get(fileName).toAbsolutePath();
+        long[] starts = new long[sectionStarts.length];
+        long[] ends = new long[sectionEnds.length];
+
+        try (FileChannel previous = openPrevious(target)) {
+            AtomicFile.write(fileName, channel -> {
+                Writer writer = new BufferedWriter(Channels.newWriter(channel, charset.newEncoder(), -1), 1 << 16);
+                for (Section section : Section.values()) {
+                    int i = section.ordinal();
+                    writer.write(section.header + "\n");
+                    writer.flush();
+                    starts[i] = channel.position();
+                    if (previous != null && writtenVersions[i] == data.sectionVersions[i]) {
+                        transfer(previous, sectionStarts[i], sectionEnds[i] - sectionStarts[i], channel);
+                    } else {
+                        writeSection(section, data, writer);
+                        writer.flush();
+                    }
+                    ends[i] = channel.position();
+                }
+            });
+        }
+
+        lastFile = target;
+        lastSize = Files.size(target);
+        lastModified = Files.getLastModifiedTime(target);
+        System.arraycopy(starts, 0, sectionStarts, 0, starts.length);
+        System.arraycopy(ends, 0, sectionEnds, 0, ends.length);
+        System.arraycopy(data.sectionVersions, 0, writtenVersions, 0, writtenVersions.length);
+    }
+
+    // The file written last, unless it was changed by someone else since
+    private FileChannel openPrevious(Path target) throws IOException {
+        if (!target.equals(lastFile) || !Files.exists(target) || Files.size(target) != lastSize
+                || !Files.getLastModifiedTime(target).equals(lastModified)) {
+            return null;
+        }
+        return FileChannel.open(target, StandardOpenOption.READ);
+    }
+
+    private static void transfer(FileChannel from, long position, long count, FileChannel to) throws IOException {
+        while (count > 0) {
+            long transferred = from.transferTo(position, count, to);
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static void writeSection(Section section, DataSnapshot data, Writer writer) throws IOException {
+        switch (section) {
+            case STUDENTS:
+                for (int i = 0; i < data.studentIds.length; i++) {
+                    writer.write(data.studentIds[i] + ", " + data.studentNames[i] + ", " + data.studentEmails[i]
+                            + "\n");
+                }
+                break;
+            case MODULES:
+                for (int i = 0; i < data.moduleIds.length; i++) {
+                    writer.write(data.moduleIds[i] + ", " + data.moduleNames[i] + ", " + data.moduleTeachers[i]
+                            + ", " + data.moduleSemesters[i] + "\n");
+                }
+                break;
+            case GRADES:
+                for (int i = 0; i < data.gradeValues.length; i++) {
+                    writer.write(data.studentIds[data.gradeStudents[i]] + ", " + data.moduleIds[data.gradeModules[i]]
+                            + ", " + data.gradeValues[i] + "\n");
+                }
+                break;
+            case ENROLLMENTS:
+                for (int i = 0; i < data.enrollmentStudents.length; i++) {
+                    writer.write(data.studentIds[data.enrollmentStudents[i]] + ", "
+                            + data.moduleIds[data.enrollmentModules[i]] + "\n");
+                }
+                break;
+        }
+    }
+}
+
+// Versioned binary snapshot of a StudentManagementSystem, much faster to load than the CSV file.
+// Layout: magic, version, string dictionary (IDs, names, emails, teachers, semesters),
+// students and modules as dictionary references, grades and enrollments as varint student and
+// module indexes, and a CRC32 of everything before it. All counts and references are varints.
+class DatabaseSnapshot {
+    private static final int MAGIC = 0x534D5353; // "SMSS"
+    private static final int VERSION = 1;
+
+    // Returns the checksum written at the end of the file
+    public static int save(StudentManagementSystem sms, String fileName) throws IOException {
+        return save(sms.captureData(), fileName);
+    }
+
+    public static int save(DataSnapshot data, String fileName) throws IOException {
+        // Dictionary of every distinct string, in first-use order
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < data.studentIds.length; i++) {
+            intern(dictionary, strings, data.studentIds[i]);
+            intern(dictionary, strings, data.studentNames[i]);
+            intern(dictionary, strings, data.studentEmails[i]);
+        }
+        for (int i = 0; i < data.moduleIds.length; i++) {
+            intern(dictionary, strings, data.moduleIds[i]);
+            intern(dictionary, strings, data.moduleNames[i]);
+            intern(dictionary, strings, data.moduleTeachers[i]);
+            intern(dictionary, strings, data.moduleSemesters[i]);
+        }
+
+        CRC32 crc = new CRC32();
+        int[] checksum = new int[1];
+        AtomicFile.write(fileName, channel -> {
+            OutputStream file = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            writeVarInt(out, VERSION);
+
+            writeVarInt(out, strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(out, bytes.length);
+                out.write(bytes);
+            }
+
+            writeVarInt(out, data.studentIds.length);
+            for (int i = 0; i < data.studentIds.length; i++) {
+                writeVarInt(out, dictionary.get(data.studentIds[i]));
+                writeVarInt(out, dictionary.get(data.studentNames[i]));
+                writeVarInt(out, dictionary.get(data.studentEmails[i]));
+            }
+
+            writeVarInt(out, data.moduleIds.length);
+            for (int i = 0; i < data.moduleIds.length; i++) {
+                writeVarInt(out, dictionary.get(data.moduleIds[i]));
+                writeVarInt(out, dictionary.get(data.moduleNames[i]));
+                writeVarInt(out, dictionary.get(data.moduleTeachers[i]));
+                writeVarInt(out, dictionary.get(data.moduleSemesters[i]));
+            }
+
+            writeVarInt(out, data.gradeValues.length);
+            for (int i = 0; i < data.gradeValues.length; i++) {
+                writeVarInt(out, data.gradeStudents[i]);
+                writeVarInt(out, data.gradeModules[i]);
+                out.writeDouble(data.gradeValues[i]);
+            }
+
+            writeVarInt(out, data.enrollmentStudents.length);
+            for (int i = 0; i < data.enrollmentStudents.length; i++) {
+                writeVarInt(out, data.enrollmentStudents[i]);
+                writeVarInt(out, data.enrollmentModules[i]);
+            }
+            out.flush();
+
+            // The checksum itself is written past the checked stream
+            checksum[0] = (int) crc.getValue();
+            file.write(new byte[] { (byte) (checksum[0] >>> 24), (byte) (checksum[0] >>> 16),
+                    (byte) (checksum[0] >>> 8), (byte) checksum[0] });
+        });
+        return checksum[0];
+    }
+
+    // Checksum at the end of a snapshot file, identifies the snapshot a journal was written against
+    public static int readChecksum(String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            if (file.length() < 8) {
+                throw new IOException(fileName + " is not a database snapshot");
+            }
+            file.seek(file.length() - 4);
+            return file.readInt();
+        }
+    }
+
+    // Nothing is added to the system unless the whole file reads back with a matching checksum
+    public static void load(StudentManagementSystem sms, String fileName) throws IOException {
+        Student[] students;
+        Module[] modules;
+        int[] gradeStudents;
+        int[] gradeModules;
+        double[] gradeValues;
+        int[] enrollmentStudents;
+        int[] enrollmentModules;
+
+        try (SnapshotInput in = new SnapshotInput(new FileInputStream(fileName))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(fileName + " is not a database snapshot");
+            }
+            int version = in.readVarInt();
+            if (version != VERSION) {
+                throw new IOException(fileName + " has unsupported snapshot version " + version);
+            }
+
+            String[] strings = new String[in.readVarInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readString();
+            }
+
+            students = new Student[in.readVarInt()];
+            for (int i = 0; i < students.length; i++) {
+                String id = strings[in.readVarInt()];
+                String name = strings[in.readVarInt()];
+                String email = strings[in.readVarInt()];
+                students[i] = new Student(name, id, email);
+            }
+
+            modules = new Module[in.readVarInt()];
+            for (int i = 0; i < modules.length; i++) {
+                String id = strings[in.readVarInt()];
+                String name = strings[in.readVarInt()];
+                String teacher = strings[in.readVarInt()];
+                String semester = strings[in.readVarInt()];
+                modules[i] = new Module(name, id, teacher, semester);
+            }
+
+            int gradeCount = in.readVarInt();
+            gradeStudents = new int[gradeCount];
+            gradeModules = new int[gradeCount];
+            gradeValues = new double[gradeCount];
+            for (int i = 0; i < gradeCount; i++) {
+                gradeStudents[i] = in.readVarInt();
+                gradeModules[i] = in.readVarInt();
+                gradeValues[i] = Double.longBitsToDouble(in.readLong());
+            }
+
+            int enrollmentCount = in.readVarInt();
+            enrollmentStudents = new int[enrollmentCount];
+            enrollmentModules = new int[enrollmentCount];
+            for (int i = 0; i < enrollmentCount; i++) {
+                enrollmentStudents[i] = in.readVarInt();
+                enrollmentModules[i] = in.readVarInt();
+            }
+
+            int expected = (int) in.checksum();
+            if (in.readInt() != expected) {
+                throw new IOException(fileName + " is corrupt, checksum mismatch");
+            }
+        } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException(fileName + " is corrupt", e);
+        }
+
+        sms.beginLoad();
+        try {
+            for (Student student : students) {
+                sms.addStudent(student);
+            }
+            for (Module module : modules) {
+                sms.addModule(module);
+            }
+            for (int i = 0; i < gradeValues.length; i++) {
+                sms.addGrade(students[gradeStudents[i]], modules[gradeModules[i]], gradeValues[i]);
+            }
+            for (int i = 0; i < enrollmentStudents.length; i++) {
+                sms.enrollStudentInModule(students[enrollmentStudents[i]], modules[enrollmentModules[i]]);
+            }
+        } finally {
+            sms.endLoad();
+        }
+    }
+
+    // CSV <-> snapshot conversion
+    public static LoadReport convertCsvToSnapshot(String csvFileName, String snapshotFileName) throws IOException {
+        StudentManagementSystem sms = new StudentManagementSystem();
+        LoadReport report = sms.loadFromFile(csvFileName);
+        if (report.hasFailed()) {
+            throw report.getFailure();
+        }
+        save(sms, snapshotFileName);
+        return report;
+    }
+
+    public static void convertSnapshotToCsv(String snapshotFileName, String csvFileName) throws IOException {
+        StudentManagementSystem sms = new StudentManagementSystem();
+        load(sms, snapshotFileName);
+        sms.saveToFile(csvFileName);
+    }
+
+    private static void intern(Map<String, Integer> dictionary, List<String> strings, String string) {
+        if (dictionary.putIfAbsent(string, strings.size()) == null) {
+            strings.add(string);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    // Buffered reader that checksums the bytes it hands out, so the trailing checksum can be compared
+    private static final class SnapshotInput implements AutoCloseable {
+        private final InputStream in;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+        private int checksummed;
+
+        SnapshotInput(InputStream in) {
+            this.in = in;
+        }
+
+        private int readByte() throws IOException {
+            if (position == limit) {
+                crc.update(buffer, checksummed, limit - checksummed);
+                limit = in.read(buffer);
+                position = 0;
+                checksummed = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    throw new EOFException("Unexpected end of snapshot");
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        long readLong() throws IOException {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in snapshot");
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            if (length <= limit - position) {
+                String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+                position += length;
+                return string;
+            }
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) readByte();
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Checksum of every byte read so far
+        long checksum() {
+            crc.update(buffer, checksummed, position - checksummed);
+            checksummed = position;
+            return crc.getValue();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
+
+// Append-only journal of the changes made to a StudentManagementSystem. Every change is encoded as a
+// compact record, and a save appends the records made since the last one followed by a commit marker,
+// so a save costs as much as the changes made since the last one. When the journal grows large, a save
+// folds it into a new snapshot (and database.csv is rewritten). At start up the snapshot is loaded and
+// the committed part of the journal is replayed, anything after the last commit is dropped.
+//
+// Saves are prepared (prepareSave) on any thread, under the read lock of the system, and can then be
+// written on any other thread (write), one at a time and in the order they were prepared.
+class DatabaseJournal implements DataChangeListener, Closeable {
+    private static final int MAGIC = 0x534D534A; // "SMSJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final long MIN_COMPACTION_SIZE = 1 << 20;
+    private static final long PARALLEL_LOAD_THRESHOLD = 64L << 20;
+    private static final String BAD_SUFFIX = ".bad";
+
+    // Record types
+    private static final byte COMMIT = 0;
+    private static final byte STUDENT_ADDED = 1;
+    private static final byte STUDENT_REMOVED = 2;
+    private static final byte STUDENT_UPDATED = 3;
+    private static final byte MODULE_ADDED = 4;
+    private static final byte MODULE_REMOVED = 5;
+    private static final byte MODULE_UPDATED = 6;
+    private static final byte ENROLLED = 7;
+    private static final byte UNENROLLED = 8;
+    private static final byte GRADE_ADDED = 9;
+    private static final byte GRADE_REMOVED = 10;
+    private static final byte GRADE_UPDATED = 11;
+
+    // The records of one save, and a copy of the data when the save also compacts the journal
+    static final class PendingSave {
+        private final byte[] records;
+        private final DataSnapshot data;
+
+        private PendingSave(byte[] records, DataSnapshot data) {
+            this.records = records;
+            this.data = data;
+        }
+
+        public boolean isCompaction() {
+            return data != null;
+        }
+    }
+
+    private final StudentManagementSystem sms;
+    private final String csvFileName;
+    private final String snapshotFileName;
+    private final String journalFileName;
+
+    // Records not yet handed to a save, written by the editing thread
+    private final ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+    private final DataOutputStream records = new DataOutputStream(pendingRecords);
+    private long journalSize;
+    private boolean compactionNeeded;
+
+    // The journal file, guarded by writeLock so writing never holds up the editing thread
+    private final Object writeLock = new Object();
+    private FileOutputStream journalFile;
+
+    public DatabaseJournal(StudentManagementSystem sms, String csvFileName, String snapshotFileName,
+            String journalFileName) {
+        this.sms = sms;
+        this.csvFileName = csvFileName;
+        this.snapshotFileName = snapshotFileName;
+        this.journalFileName = journalFileName;
+    }
+
+    // Loads the snapshot and replays the journal, or loads the CSV file when it was changed after the
+    // snapshot or the snapshot cannot be read, then starts recording changes. A damaged journal is
+    // replayed up to its last good commit. What was damaged is in the returned report, a CSV file
+    // that cannot be read is thrown, so a partial load never becomes the new snapshot. A snapshot that
+    // cannot be read is moved to a .bad file with its journal before a new one is written, as the journal
+    // may hold changes the CSV file does not.
+    public LoadReport open() throws IOException {
+        return load(true);
+    }
+
+    // Loads the same data as open, but writes no file and records no changes, for commands that only
+    // read the data. The journal cannot be saved to afterwards.
+    public LoadReport openReadOnly() throws IOException {
+        return load(false);
+    }
+
+    private LoadReport load(boolean writable) throws IOException {
+        File csv = new File(csvFileName);
+        File snapshot = new File(snapshotFileName);
+        String snapshotError = null;
+        if (snapshot.exists() && snapshot.lastModified() >= csv.lastModified()) {
+            try {
+                int checksum = DatabaseSnapshot.readChecksum(snapshotFileName);
+                DatabaseSnapshot.load(sms, snapshotFileName);
+                LoadReport report = new LoadReport(snapshotFileName);
+                replay(checksum, report, writable);
+                if (writable) {
+                    sms.addDataChangeListener(this);
+                }
+                return report;
+            } catch (IOException e) {
+                snapshotError = "The snapshot " + snapshotFileName + " could not be read, " + csvFileName
+                        + " was loaded instead (" + e.getMessage() + ")";
+                // Whatever was loaded before the failure is dropped
+                sms.clear();
+            }
+        }
+
+        LoadReport report;
+        if (!csv.exists()) {
+            report = new LoadReport(csvFileName);
+        } else if (csv.length() >= PARALLEL_LOAD_THRESHOLD) {
+            report = sms.loadFromFileParallel(csvFileName);
+        } else {
+            report = sms.loadFromFile(csvFileName);
+        }
+        if (report.hasFailed()) {
+            throw report.getFailure();
+        }
+        if (snapshotError != null) {
+            report.error(snapshotError);
+        }
+        if (!writable) {
+            return report;
+        }
+
+        // The new snapshot is the base of the journal from now on
+        synchronized (writeLock) {
+            if (snapshotError != null) {
+                moveAside(snapshotFileName);
+                moveAside(journalFileName);
+                report.error("The snapshot and journal were kept as " + snapshotFileName + BAD_SUFFIX + " and "
+                        + journalFileName + BAD_SUFFIX);
+            }
+            startJournal(DatabaseSnapshot.save(sms, snapshotFileName));
+        }
+        sms.addDataChangeListener(this);
+        return report;
+    }
+
+    // Makes every change so far durable, compacting the journal when it has grown large
+    public void commit() throws IOException {
+        write(prepareSave(false));
+    }
+
+    // Folds the journal into a new snapshot and CSV file and starts an empty journal against it
+    public void compact() throws IOException {
+        write(prepareSave(true));
+    }
+
+    public synchronized boolean hasUnsavedChanges() {
+        return pendingRecords.size() > 0 || compactionNeeded;
+    }
+
+    // Takes the records made so far, and a copy of the data when the journal is due for compaction.
+    // The read lock of sms is taken first, as changes take the write lock before reaching dataChanged.
+    public PendingSave prepareSave(boolean compact) {
+        Lock readLock = sms.readLock();
+        readLock.lock();
+        try {
+            return prepareSaveLocked(compact);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private synchronized PendingSave prepareSaveLocked(boolean compact) {
+        try {
+            records.writeByte(COMMIT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] bytes = pendingRecords.toByteArray();
+        pendingRecords.reset();
+        journalSize += bytes.length;
+
+        compact |= compactionNeeded
+                || journalSize > Math.max(MIN_COMPACTION_SIZE, new File(snapshotFileName).length() / 2);
+        if (!compact) {
+            return new PendingSave(bytes, null);
+        }
+        compactionNeeded = false;
+        journalSize = HEADER_SIZE;
+        return new PendingSave(bytes, sms.captureData());
+    }
+
+    // Appends the records and forces them to disk, then compacts if the save asked for it
+    public void write(PendingSave save) throws IOException {
+        synchronized (writeLock) {
+            try {
+                if (journalFile == null) {
+                    throw new IOException("The journal is not open");
+                }
+                journalFile.write(save.records);
+                journalFile.getFD().sync();
+
+                if (save.data != null) {
+                    sms.saveToFile(csvFileName, save.data);
+                    int checksum = DatabaseSnapshot.save(save.data, snapshotFileName);
+                    journalFile.close();
+                    startJournal(checksum);
+                }
+            } catch (IOException | RuntimeException e) {
+                // The records are lost from the journal, so the next save writes the whole data instead
+                synchronized (this) {
+                    compactionNeeded = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Uncommitted changes are dropped at the next start up. The journal counts as closed even when closing
+    // the file fails, the committed records were already forced to disk.
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (journalFile != null) {
+                try {
+                    journalFile.close();
+                } finally {
+                    journalFile = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void dataChanged(List<DataChange> changes) {
+        try {
+            for (DataChange change : changes) {
+                // Cascaded changes are replayed by the removal that caused them
+                if (!change.isCascade()) {
+                    writeRecord(change);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeRecord(DataChange change) throws IOException {
+        Student student = change.getStudent();
+        Module module = change.getModule();
+        switch (change.getType()) {
+            case STUDENT_ADDED:
+                records.writeByte(STUDENT_ADDED);
+                writeStrings(student.getId(), student.getName(), student.getEmail());
+                break;
+            case STUDENT_REMOVED:
+                records.writeByte(STUDENT_REMOVED);
+                writeStrings(student.getId());
+                break;
+            case STUDENT_UPDATED:
+                records.writeByte(STUDENT_UPDATED);
+                writeStrings(change.getOldId(), student.getName(), student.getId(), student.getEmail());
+                break;
+            case MODULE_ADDED:
+                records.writeByte(MODULE_ADDED);
+                writeStrings(module.getId(), module.getName(), module.getTeacher(), module.getSemester());
+                break;
+            case MODULE_REMOVED:
+                records.writeByte(MODULE_REMOVED);
+                writeStrings(module.getId());
+                break;
+            case MODULE_UPDATED:
+                records.writeByte(MODULE_UPDATED);
+                writeStrings(change.getOldId(), module.getName(), module.getId());
+                break;
+            case ENROLLED:
+                records.writeByte(ENROLLED);
+                writeStrings(student.getId(), module.getId());
+                break;
+            case UNENROLLED:
+                records.writeByte(UNENROLLED);
+                writeStrings(student.getId(), module.getId());
+                break;
+            case GRADE_ADDED:
+                records.writeByte(GRADE_ADDED);
+                writeStrings(student.getId(), module.getId());
+                records.writeDouble(change.getGrade().getGrade());
+                break;
+            case GRADE_REMOVED:
+                records.writeByte(GRADE_REMOVED);
+                writeStrings(student.getId(), module.getId());
+                records.writeDouble(change.getGrade().getGrade());
+                break;
+            case GRADE_UPDATED:
+                records.writeByte(GRADE_UPDATED);
+                writeStrings(student.getId(), module.getId());
+                records.writeDouble(change.getOldGradeValue());
+                records.writeDouble(change.getGrade().getGrade());
+                break;
+            case RELOADED:
+                // A whole reload cannot be journaled, the next save writes a new snapshot
+                compactionNeeded = true;
+                break;
+        }
+    }
+
+    private void writeStrings(String... strings) throws IOException {
+        for (String string : strings) {
+            records.writeUTF(string);
+        }
+    }
+
+    // Keeps a file that would be overwritten, replacing what an earlier failure kept
+    private static void moveAside(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        if (Files.exists(path)) {
+            Files.move(path, Paths.get(fileName + BAD_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void startJournal(int baseChecksum) throws IOException {
+        journalFile = new FileOutputStream(journalFileName);
+        DataOutputStream header = new DataOutputStream(journalFile);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(baseChecksum);
+        header.flush();
+        journalFile.getFD().sync();
+    }
+
+    // Applies the committed records of the journal, one written against another snapshot is ignored. Replay
+    // stops at a damaged record or one that cannot be applied, and the next save writes a new snapshot, as
+    // the data may hold part of a commit. When writable, the journal is then cut after the last good commit
+    // and opened to append to, or started again when it belongs to another snapshot. When read-only, the
+    // file is left as it is.
+    private void replay(int baseChecksum, LoadReport report, boolean writable) throws IOException {
+        File file = new File(journalFileName);
+        byte[] bytes = file.exists() ? Files.readAllBytes(file.toPath()) : new byte[0];
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readInt() != baseChecksum) {
+            if (writable) {
+                synchronized (writeLock) {
+                    startJournal(baseChecksum);
+                }
+            }
+            return;
+        }
+
+        long committedLength = HEADER_SIZE;
+        String damage = null;
+        List<Runnable> pending = new ArrayList<>();
+        sms.beginLoad();
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == COMMIT) {
+                    for (Runnable record : pending) {
+                        record.run();
+                    }
+                    pending.clear();
+                    committedLength = bytes.length - in.available();
+                } else {
+                    pending.add(readRecord(type, in));
+                }
+            }
+        } catch (EOFException e) {
+            // End of the journal, or a record cut short by a crash
+        } catch (IOException | RuntimeException e) {
+            damage = e.getMessage();
+        } finally {
+            sms.endLoad();
+        }
+
+        if (damage != null) {
+            report.error("The journal " + journalFileName + " is damaged after byte " + committedLength
+                    + ", the changes after it were dropped (" + damage + ")");
+            synchronized (this) {
+                compactionNeeded = true;
+            }
+        }
+        if (!writable) {
+            return;
+        }
+
+        // Drop the uncommitted tail and keep appending after the last commit
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(committedLength);
+        }
+        synchronized (writeLock) {
+            journalFile = new FileOutputStream(journalFileName, true);
+        }
+        synchronized (this) {
+            journalSize = committedLength;
+        }
+    }
+
+    private Runnable readRecord(byte type, DataInputStream in) throws IOException {
+        switch (type) {
+            case STUDENT_ADDED: {
+                String id = in.readUTF();
+                String name = in.readUTF();
+                String email = in.readUTF();
+                return () -> sms.addStudent(new Student(name, id, email));
+            }
+            case STUDENT_REMOVED: {
+                String id = in.readUTF();
+                return () -> sms.getStudentById(id).ifPresent(sms::removeStudent);
+            }
+            case STUDENT_UPDATED: {
+                String oldId = in.readUTF();
+                String name = in.readUTF();
+                String id = in.readUTF();
+                String email = in.readUTF();
+                return () -> sms.getStudentById(oldId).ifPresent(s -> sms.updateStudent(s, name, id, email));
+            }
+            case MODULE_ADDED: {
+                String id = in.readUTF();
+                String name = in.readUTF();
+                String teacher = in.readUTF();
+                String semester = in.readUTF();
+                return () -> sms.addModule(new Module(name, id, teacher, semester));
+            }
+            case MODULE_REMOVED: {
+                String id = in.readUTF();
+                return () -> sms.getModuleById(id).ifPresent(sms::removeModule);
+            }
+            case MODULE_UPDATED: {
+                String oldId = in.readUTF();
+                String name = in.readUTF();
+                String id = in.readUTF();
+                return () -> sms.getModuleById(oldId).ifPresent(m -> sms.updateModule(m, name, id));
+            }
+            case ENROLLED:
+            case UNENROLLED: {
+                String studentId = in.readUTF();
+                String moduleId = in.readUTF();
+                return () -> {
+                    Optional<Student> student = sms.getStudentById(studentId);
+                    Optional<Module> module = sms.getModuleById(moduleId);
+                    if (student.isPresent() && module.isPresent()) {
+                        if (type == ENROLLED) {
+                            sms.enrollStudentInModule(student.get(), module.get());
+                        } else {
+                            sms.unenrollStudentFromModule(student.get(), module.get());
+                        }
+                    }
+                };
+            }
+            case GRADE_ADDED: {
+                String studentId = in.readUTF();
+                String moduleId = in.readUTF();
+                double value = in.readDouble();
+                return () -> {
+                    Optional<Student> student = sms.getStudentById(studentId);
+                    Optional<Module> module = sms.getModuleById(moduleId);
+                    if (student.isPresent() && module.isPresent()) {
+                        sms.addGrade(student.get(), module.get(), value);
+                    }
+                };
+            }
+            case GRADE_REMOVED: {
+                String studentId = in.readUTF();
+                String moduleId = in.readUTF();
+                double value = in.readDouble();
+                return () -> findGrade(studentId, moduleId, value).ifPresent(sms::removeGrade);
+            }
+            case GRADE_UPDATED: {
+                String studentId = in.readUTF();
+                String moduleId = in.readUTF();
+                double oldValue = in.readDouble();
+                double newValue = in.readDouble();
+                return () -> findGrade(studentId, moduleId, oldValue).ifPresent(g -> sms.updateGrade(g, newValue));
+            }
+            default:
+                throw new IOException("Unknown journal record " + type);
+        }
+    }
+
+    // The grade of the pair with the given value, there can be more than one grade per pair
+    private Optional<Grade> findGrade(String studentId, String moduleId, double value) {
+        Optional<Student> student = sms.getStudentById(studentId);
+        Optional<Module> module = sms.getModuleById(moduleId);
+        if (student.isPresent() && module.isPresent()) {
+            for (Grade grade : sms.getGradesForStudent(student.get())) {
+                if (grade.getModule() == module.get() && Double.compare(grade.getGrade(), value) == 0) {
+                    return Optional.of(grade);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+}
+
+// Writes the saves of a DatabaseJournal on a background thread so the GUI never waits for the disk.
+// At most one save waits behind the one being written, and it takes the pending records (or a copy of
+// the data when compacting) only when it starts, so every save asked for meanwhile joins it. Autosave
+// coalesces every edit made during an interval into one save.
+class PersistenceService {
+    // Called on the writer thread
+    interface Listener {
+        void saveStarted(boolean compaction);
+
+        void saveFinished(IOException error);
+    }
+
+    private final DatabaseJournal journal;
+    private final ExecutorService writer;
+    private final ScheduledExecutorService autosave;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // The save being written or last written, and the one waiting for the writer, guarded by this
+    private Future<Void> inFlight;
+    private FutureTask<Void> queued;
+
+    // Autosave runs on the editing thread through the given executor, e.g. SwingUtilities::invokeLater
+    public PersistenceService(DatabaseJournal journal, Executor editingThread, long autosaveSeconds) {
+        this.journal = journal;
+        writer = Executors.newSingleThreadExecutor(task -> newDaemonThread(task, "database-writer"));
+        autosave = Executors.newSingleThreadScheduledExecutor(task -> newDaemonThread(task, "database-autosave"));
+        autosave.scheduleWithFixedDelay(() -> editingThread.execute(this::autosave), autosaveSeconds,
+                autosaveSeconds, TimeUnit.SECONDS);
+    }
+
+    private static Thread newDaemonThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Commits every change made before the save starts. The future fails with the IOException of the
+    // write, and is shared by the saves that were coalesced into it.
+    public synchronized Future<Void> save() {
+        if (queued == null) {
+            queued = new FutureTask<>(this::write);
+            inFlight = queued;
+            writer.execute(queued);
+        }
+        return queued;
+    }
+
+    // Runs on the writer thread, from now on saves queue up behind this one. Any failure of the save is
+    // passed to the listeners as an IOException, so they always hear that it finished.
+    private Void write() throws IOException {
+        synchronized (this) {
+            queued = null;
+        }
+        IOException error = null;
+        try {
+            DatabaseJournal.PendingSave save = journal.prepareSave(false);
+            listeners.forEach(listener -> listener.saveStarted(save.isCompaction()));
+            journal.write(save);
+        } catch (IOException e) {
+            error = e;
+        } catch (UncheckedIOException e) {
+            error = e.getCause();
+        } catch (RuntimeException e) {
+            error = new IOException("The save failed: " + e, e);
+        }
+        for (Listener listener : listeners) {
+            listener.saveFinished(error);
+        }
+        if (error != null) {
+            throw error;
+        }
+        return null;
+    }
+
+    // Edits made while a save is being written wait for the next interval
+    private void autosave() {
+        Future<Void> current;
+        synchronized (this) {
+            current = inFlight;
+        }
+        if (journal.hasUnsavedChanges() && (current == null || current.isDone())) {
+            save();
+        }
+    }
+
+    // Stops autosaving, drops the save waiting for the writer, waits for the one being written and
+    // closes the journal, throwing the error of closing it. Changes that were not saved are dropped at the
+    // next start up.
+    public void close() throws IOException {
+        autosave.shutdownNow();
+        synchronized (this) {
+            if (queued != null) {
+                queued.cancel(false);
+                queued = null;
+            }
+        }
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                // The in-flight write is still going
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the stress test of the StudentManagementSystem's
+ *              locking. Writers change enrollments and grades while readers check that
+ *              what they read agrees with itself, then the data is checked against what
+ *              the writers did.
+ *
+*/
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+// Stress test of one StudentManagementSystem shared by writer and reader threads. Each writer owns its own
+// students and enrolls, unenrolls and grades them at random, keeping its own record of what it did. The
+// readers check, under the read lock, that the grade and enrollment counts of every index agree, and that
+// each published StoreVersion agrees with its own counts. The first student of each writer is always
+// enrolled in exactly one module and is moved with applyEnrollmentChanges, so a half-applied batch shows.
+// At the end the data of every student must be what its writer recorded.
+class ConcurrencyStressTest {
+    private static final int MODULES = 40;
+    private static final int STUDENTS_PER_WRITER = 100;
+    private static final int MAX_REPORTED_PROBLEMS = 10;
+
+    private final int writerCount;
+    private final int readerCount;
+    private final int seconds;
+
+    private final StudentManagementSystem sms = new StudentManagementSystem();
+    private final List<Module> modules = new ArrayList<>();
+    private final AtomicInteger problems = new AtomicInteger();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private PrintWriter out;
+
+    public ConcurrencyStressTest(int writerCount, int readerCount, int seconds) {
+        this.writerCount = writerCount;
+        this.readerCount = readerCount;
+        this.seconds = seconds;
+    }
+
+    // Returns the number of problems found
+    public int run(PrintWriter out) throws InterruptedException {
+        this.out = out;
+        for (int m = 0; m < MODULES; m++) {
+            Module module = new Module("Module " + m, "M" + m, "Teacher " + m % 7, "SEM" + (m % 6 + 1));
+            sms.addModule(module);
+            modules.add(module);
+        }
+        List<Writer> writers = new ArrayList<>();
+        for (int w = 0; w < writerCount; w++) {
+            writers.add(new Writer(w));
+        }
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (Writer writer : writers) {
+            threads.add(new Thread(() -> writer.run(deadline), "stress-writer"));
+        }
+        for (int r = 0; r < readerCount; r++) {
+            Random random = new Random(r);
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    if (random.nextBoolean()) {
+                        checkIndexes(writers);
+                    } else {
+                        checkVersion();
+                    }
+                    reads.incrementAndGet();
+                }
+            }, "stress-reader"));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Nothing runs now, so the last checks see the final data
+        checkIndexes(writers);
+        checkVersion();
+        for (Writer writer : writers) {
+            writer.checkRecorded();
+        }
+        out.printf("%d writers, %d readers, %.1f s, %d changes, %d checks, %d problems%n", writerCount,
+                readerCount, elapsed / 1e9, writes.get(), reads.get(), problems.get());
+        return problems.get();
+    }
+
+    private void problem(String text) {
+        if (problems.incrementAndGet() <= MAX_REPORTED_PROBLEMS) {
+            synchronized (out) {
+                out.println("Problem: " + text);
+            }
+        }
+    }
+
+    // Several reads under the read lock must see one state of the data
+    private void checkIndexes(List<Writer> writers) {
+        Lock readLock = sms.readLock();
+        readLock.lock();
+        try {
+            int grades = sms.getGradeCount();
+            if (sms.getGrades().size() != grades) {
+                problem("getGrades has " + sms.getGrades().size() + " grades, getGradeCount " + grades);
+            }
+            int byModule = 0;
+            int enrolledByModule = 0;
+            for (Module module : modules) {
+                int count = sms.getModuleStats(module).getCount();
+                if (sms.getGradesForModule(module).size() != count) {
+                    problem("module " + module.getId() + " has " + sms.getGradesForModule(module).size()
+                            + " grades and statistics of " + count);
+                }
+                byModule += count;
+                enrolledByModule += sms.getEnrolledStudents(module).size();
+            }
+            int byStudent = 0;
+            int enrolledByStudent = 0;
+            for (Student student : sms.getStudents()) {
+                byStudent += sms.getGradesForStudent(student).size();
+                enrolledByStudent += sms.getEnrolledModules(student).size();
+            }
+            if (byModule != grades || byStudent != grades) {
+                problem(grades + " grades, " + byModule + " by module and " + byStudent + " by student");
+            }
+            if (enrolledByModule != enrolledByStudent) {
+                problem(enrolledByModule + " enrollments by module and " + enrolledByStudent + " by student");
+            }
+            for (Writer writer : writers) {
+                int enrolled = sms.getEnrolledModules(writer.mover).size();
+                if (enrolled != 1) {
+                    problem(writer.mover.getId() + " is enrolled in " + enrolled + " modules, not 1");
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // A version is read without the lock, its counts must match its contents
+    private void checkVersion() {
+        StoreVersion version = sms.getCurrentVersion();
+        int[] grades = { 0 };
+        version.forEachGrade(grade -> grades[0]++);
+        int[] enrollments = { 0 };
+        version.forEachStudent(student -> version.forEachEnrollmentOfStudent(student.getKey(),
+                module -> enrollments[0]++));
+        if (grades[0] != version.getGradeCount()) {
+            problem("version " + version.getVersion() + " has " + grades[0] + " grades, counted "
+                    + version.getGradeCount());
+        }
+        if (enrollments[0] != version.getEnrollmentCount()) {
+            problem("version " + version.getVersion() + " has " + enrollments[0] + " enrollments, counted "
+                    + version.getEnrollmentCount());
+        }
+    }
+
+    // Changes only its own students, so what it records is what the data must hold at the end
+    private final class Writer {
+        private final Random random;
+        private final List<Student> students = new ArrayList<>();
+        private final Student mover;
+        private Module moverModule;
+
+        // Enrolled modules and grade values of each student, by module ID
+        private final Map<Student, Set<Module>> enrolled = new HashMap<>();
+        private final Map<Student, Map<String, List<Double>>> grades = new HashMap<>();
+
+        Writer(int index) {
+            random = new Random(1000 + index);
+            for (int i = 0; i < STUDENTS_PER_WRITER; i++) {
+                Student student = new Student("Student " + index + "/" + i, "W" + index + "S" + i,
+                        "w" + index + "s" + i + "@example.com");
+                sms.addStudent(student);
+                students.add(student);
+                enrolled.put(student, new HashSet<>());
+                grades.put(student, new HashMap<>());
+            }
+            mover = students.get(0);
+            moverModule = modules.get(0);
+            sms.enrollStudentInModule(mover, moverModule);
+            enrolled.get(mover).add(moverModule);
+        }
+
+        void run(long deadline) {
+            try {
+                while (System.nanoTime() < deadline) {
+                    change();
+                    writes.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                problem("the writer failed: " + e);
+            }
+        }
+
+        private void change() {
+            Student student = students.get(1 + random.nextInt(students.size() - 1));
+            Module module = modules.get(random.nextInt(modules.size()));
+            Set<Module> studentEnrolled = enrolled.get(student);
+            List<Double> values = grades.get(student).computeIfAbsent(module.getId(), id -> new ArrayList<>());
+            switch (random.nextInt(6)) {
+                case 0:
+                    if (sms.enrollStudentInModule(student, module) != studentEnrolled.add(module)) {
+                        problem("enrolling " + student.getId() + " in " + module.getId() + " was not as recorded");
+                    }
+                    break;
+                case 1:
+                    if (sms.unenrollStudentFromModule(student, module) != studentEnrolled.remove(module)) {
+                        problem("unenrolling " + student.getId() + " from " + module.getId()
+                                + " was not as recorded");
+                    }
+                    break;
+                case 2: {
+                    // Moved in one batch, so no reader sees it in none or in two modules
+                    Module next = modules.get(random.nextInt(modules.size()));
+                    if (next != moverModule) {
+                        sms.applyEnrollmentChanges(List.of(new EnrollmentChange(mover, moverModule, false),
+                                new EnrollmentChange(mover, next, true)));
+                        enrolled.get(mover).remove(moverModule);
+                        enrolled.get(mover).add(next);
+                        moverModule = next;
+                    }
+                    break;
+                }
+                case 3:
+                case 4: {
+                    double value = Math.round(random.nextDouble() * 1000) / 10.0;
+                    if (values.isEmpty() || random.nextBoolean()) {
+                        sms.addGrade(student, module, value);
+                        values.add(value);
+                    } else {
+                        Grade grade = sms.findGrade(student, module).get();
+                        values.remove(grade.getGrade());
+                        sms.updateGrade(grade, value);
+                        values.add(value);
+                    }
+                    break;
+                }
+                default: {
+                    if (!values.isEmpty()) {
+                        Grade grade = sms.findGrade(student, module).get();
+                        values.remove(grade.getGrade());
+                        sms.removeGrade(grade);
+                    }
+                    break;
+                }
+            }
+        }
+
+        void checkRecorded() {
+            for (Student student : students) {
+                if (!sms.getEnrolledModules(student).equals(enrolled.get(student))) {
+                    problem(student.getId() + " is enrolled in " + sms.getEnrolledModules(student).size()
+                            + " modules, recorded " + enrolled.get(student).size());
+                }
+                Map<String, List<Double>> stored = new HashMap<>();
+                for (Grade grade : sms.getGradesForStudent(student)) {
+                    stored.computeIfAbsent(grade.getModule().getId(), id -> new ArrayList<>()).add(grade.getGrade());
+                }
+                Map<String, List<Double>> recorded = new HashMap<>();
+                grades.get(student).forEach((moduleId, values) -> {
+                    if (!values.isEmpty()) {
+                        recorded.put(moduleId, new ArrayList<>(values));
+                    }
+                });
+                stored.values().forEach(Collections::sort);
+                recorded.values().forEach(Collections::sort);
+                if (!stored.equals(recorded)) {
+                    problem(student.getId() + " has the grades " + stored + ", recorded " + recorded);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the symbol tables of the application. Student and
+ *              module IDs, teacher names and semester labels are stored once each per
+ *              StudentManagementSystem and referred to by a dense int code, so repeated
+ *              values share one String and compare as ints.
+ *
+*/
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Maps strings to dense int codes, 0, 1, 2, ... in the order they are first seen, and back. Codes are never
+// reused or removed, so a code stays valid for the life of the table, which is that of the
+// StudentManagementSystem that owns it. Safe to use from any thread.
+final class SymbolTable {
+    public static final int NONE = -1;
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] symbols = new String[16];
+    private int size;
+
+    // Code of the value, adding it if it is new. Null has the code NONE.
+    public int intern(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    private synchronized int add(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        String[] current = symbols;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        // The array is published before the code, so whoever finds the code can read the symbol
+        symbols = current;
+        codes.put(value, size);
+        return size++;
+    }
+
+    // Code of the value without adding it, NONE when it was never interned
+    public int find(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : NONE;
+    }
+
+    // The single shared String of a code, null for NONE
+    public String symbol(int code) {
+        return code == NONE ? null : symbols[code];
+    }
+
+    public int size() {
+        return codes.size();
+    }
+}
+
+// Index of the students or of the modules of one system by ID. The IDs are interned in a table of their
+// own, one per kind so the codes stay dense, and the values are kept in an array by code, so the code of an
+// ID is all that is hashed and two IDs compare as ints. Guarded like the rest of the data by the lock of
+// the StudentManagementSystem, apart from the table, which is safe from any thread.
+final class IdIndex<T> {
+    private final SymbolTable ids = new SymbolTable();
+    private Object[] values = new Object[16];
+
+    // Code of the ID, adding it to the table if it is new. Null has the code SymbolTable.NONE.
+    public int intern(String id) {
+        return ids.intern(id);
+    }
+
+    // The value with the ID, or null
+    public T get(String id) {
+        return get(ids.find(id));
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int code) {
+        return code >= 0 && code < values.length ? (T) values[code] : null;
+    }
+
+    public void put(int code, T value) {
+        if (code == SymbolTable.NONE) {
+            return;
+        }
+        if (code >= values.length) {
+            values = Arrays.copyOf(values, Math.max(code + 1, values.length * 2));
+        }
+        values[code] = value;
+    }
+
+    // Removes the value only if it is the one indexed under the code
+    public void remove(int code, T value) {
+        if (code >= 0 && code < values.length && values[code] == value) {
+            values[code] = null;
+        }
+    }
+}
@@ -0,0 +1,598 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the table models of the GUI. They read the rows
+ *              straight from the StudentManagementSystem and listen for its changes,
+ *              so a change to one student, module or grade only updates its own rows.
+ *
+*/
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+// Table model that keeps one row per key and fires an event per row changed. Removing a row moves the
+// last row into its place, so no other rows have to shift. Rows and events only change on the Swing
+// event thread, changes made on any other thread are shown by one reload queued to it.
+abstract class LiveTableModel<K, R> extends AbstractTableModel implements DataChangeListener {
+    private static final long serialVersionUID = 1L;
+
+    // Above this many changes at once a single full refresh is cheaper than an event per row
+    private static final int BULK_CHANGE_THRESHOLD = 1000;
+
+    protected final StudentManagementSystem sms;
+    private final String[] columnNames;
+    private final List<R> rows = new ArrayList<>();
+    private final Map<K, Integer> rowIndex = new HashMap<>();
+    private boolean bulkChange;
+    private final AtomicBoolean reloadQueued = new AtomicBoolean();
+
+    protected LiveTableModel(StudentManagementSystem sms, String... columnNames) {
+        this.sms = sms;
+        this.columnNames = columnNames;
+        loadRows();
+        sms.addDataChangeListener(this);
+    }
+
+    // The rows of the current data, in no particular order
+    protected abstract Collection<R> currentRows();
+
+    protected abstract K keyOf(R row);
+
+    protected abstract Object getValue(R row, int column);
+
+    protected abstract void apply(DataChange change);
+
+    // Called after all the changes of one notification have been applied
+    protected void changesApplied() {
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        return getValue(rows.get(rowIndex), columnIndex);
+    }
+
+    public R getRow(int rowIndex) {
+        return rows.get(rowIndex);
+    }
+
+    // Whether the row is kept by a search, used by SearchRowFilter
+    public boolean rowMatches(int rowIndex, SearchMatches matches) {
+        return matches(rows.get(rowIndex), matches);
+    }
+
+    // By default any cell that matches as shown, models with students or modules check the indexes instead
+    protected boolean matches(R row, SearchMatches matches) {
+        for (int column = 0; column < columnNames.length; column++) {
+            if (matches.matchesValue(getValue(row, column))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void dataChanged(List<DataChange> changes) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            if (reloadQueued.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    reloadQueued.set(false);
+                    reload();
+                });
+            }
+            return;
+        }
+        bulkChange = changes.size() > BULK_CHANGE_THRESHOLD;
+        try {
+            for (DataChange change : changes) {
+                if (change.getType() == DataChange.Type.RELOADED) {
+                    reload();
+                } else {
+                    apply(change);
+                }
+            }
+            changesApplied();
+        } finally {
+            if (bulkChange) {
+                bulkChange = false;
+                fireTableDataChanged();
+            }
+        }
+    }
+
+    private void loadRows() {
+        rows.clear();
+        rowIndex.clear();
+        for (R row : currentRows()) {
+            rowIndex.put(keyOf(row), rows.size());
+            rows.add(row);
+        }
+    }
+
+    protected void reload() {
+        loadRows();
+        if (!bulkChange) {
+            fireTableDataChanged();
+        }
+    }
+
+    // Adds the row, or replaces the row with the same key
+    protected void put(R row) {
+        K key = keyOf(row);
+        Integer index = rowIndex.get(key);
+        if (index != null) {
+            rows.set(index, row);
+            if (!bulkChange) {
+                fireTableRowsUpdated(index, index);
+            }
+            return;
+        }
+        int last = rows.size();
+        rowIndex.put(key, last);
+        rows.add(row);
+        if (!bulkChange) {
+            fireTableRowsInserted(last, last);
+        }
+    }
+
+    protected void remove(K key) {
+        Integer index = rowIndex.remove(key);
+        if (index == null) {
+            return;
+        }
+        int last = rows.size() - 1;
+        R moved = rows.remove(last);
+        if (index != last) {
+            rows.set(index, moved);
+            rowIndex.put(keyOf(moved), index);
+        }
+        if (!bulkChange) {
+            fireTableRowsDeleted(last, last);
+            if (index != last) {
+                fireTableRowsUpdated(index, index);
+            }
+        }
+    }
+
+    // The row object is unchanged but its values are not
+    protected void refresh(K key) {
+        Integer index = rowIndex.get(key);
+        if (index != null && !bulkChange) {
+            fireTableRowsUpdated(index, index);
+        }
+    }
+}
+
+class StudentTableModel extends LiveTableModel<Student, Student> {
+    private static final long serialVersionUID = 1L;
+
+    public StudentTableModel(StudentManagementSystem sms) {
+        super(sms, "Student ID", "Name", "Email");
+    }
+
+    @Override
+    protected Collection<Student> currentRows() {
+        return sms.getStudents();
+    }
+
+    @Override
+    protected Student keyOf(Student student) {
+        return student;
+    }
+
+    @Override
+    protected Object getValue(Student student, int column) {
+        switch (column) {
+            case 0:
+                return student.getId();
+            case 1:
+                return student.getName();
+            default:
+                return student.getEmail();
+        }
+    }
+
+    @Override
+    protected boolean matches(Student student, SearchMatches matches) {
+        return matches.matches(student);
+    }
+
+    @Override
+    protected void apply(DataChange change) {
+        switch (change.getType()) {
+            case STUDENT_ADDED:
+                put(change.getStudent());
+                break;
+            case STUDENT_REMOVED:
+                remove(change.getStudent());
+                break;
+            case STUDENT_UPDATED:
+                refresh(change.getStudent());
+                break;
+            default:
+                break;
+        }
+    }
+}
+
+class ModuleTableModel extends LiveTableModel<Module, Module> {
+    private static final long serialVersionUID = 1L;
+
+    public ModuleTableModel(StudentManagementSystem sms) {
+        super(sms, "Module ID", "Name", "Teacher", "Semester");
+    }
+
+    @Override
+    protected Collection<Module> currentRows() {
+        return sms.getModules();
+    }
+
+    @Override
+    protected Module keyOf(Module module) {
+        return module;
+    }
+
+    @Override
+    protected Object getValue(Module module, int column) {
+        switch (column) {
+            case 0:
+                return module.getId();
+            case 1:
+                return module.getName();
+            case 2:
+                return module.getTeacher();
+            default:
+                return module.getSemester();
+        }
+    }
+
+    @Override
+    protected boolean matches(Module module, SearchMatches matches) {
+        return matches.matches(module);
+    }
+
+    @Override
+    protected void apply(DataChange change) {
+        switch (change.getType()) {
+            case MODULE_ADDED:
+                put(change.getModule());
+                break;
+            case MODULE_REMOVED:
+                remove(change.getModule());
+                break;
+            case MODULE_UPDATED:
+                refresh(change.getModule());
+                break;
+            default:
+                break;
+        }
+    }
+}
+
+class GradeTableModel extends LiveTableModel<Grade, Grade> {
+    private static final long serialVersionUID = 1L;
+
+    public GradeTableModel(StudentManagementSystem sms) {
+        super(sms, "Student ID", "Module ID", "Grade");
+    }
+
+    @Override
+    protected Collection<Grade> currentRows() {
+        return sms.getGrades();
+    }
+
+    @Override
+    protected Grade keyOf(Grade grade) {
+        return grade;
+    }
+
+    @Override
+    protected Object getValue(Grade grade, int column) {
+        switch (column) {
+            case 0:
+                return grade.getStudent().getId();
+            case 1:
+                return grade.getModule().getId();
+            default:
+                return grade.getGrade();
+        }
+    }
+
+    // Any text of the grade's student or module, or the grade
+    @Override
+    protected boolean matches(Grade grade, SearchMatches matches) {
+        return matches.matches(grade.getStudent()) || matches.matches(grade.getModule())
+                || matches.matchesValue(grade.getGrade());
+    }
+
+    @Override
+    protected void apply(DataChange change) {
+        switch (change.getType()) {
+            case GRADE_ADDED:
+                put(change.getGrade());
+                break;
+            case GRADE_REMOVED:
+                remove(change.getGrade());
+                break;
+            case GRADE_UPDATED:
+                refresh(change.getGrade());
+                break;
+            case STUDENT_UPDATED:
+                // The ID columns show the current IDs
+                sms.getGradesForStudent(change.getStudent()).forEach(this::refresh);
+                break;
+            case MODULE_UPDATED:
+                sms.getGradesForModule(change.getModule()).forEach(this::refresh);
+                break;
+            default:
+                break;
+        }
+    }
+}
+
+// One row per enrolled or graded (student, module) pair, as in StudentManagementSystem.getDashboardRows
+class DashboardTableModel extends LiveTableModel<DashboardTableModel.Pair, DashboardRow> {
+    private static final long serialVersionUID = 1L;
+
+    static final class Pair {
+        private final Student student;
+        private final Module module;
+
+        Pair(Student student, Module module) {
+            this.student = student;
+            this.module = module;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pair)) {
+                return false;
+            }
+            Pair other = (Pair) o;
+            return student == other.student && module == other.module;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(student), System.identityHashCode(module));
+        }
+    }
+
+    public DashboardTableModel(StudentManagementSystem sms) {
+        super(sms, "Student", "Module", "Grade", "Status", "Enrolled");
+    }
+
+    @Override
+    protected Collection<DashboardRow> currentRows() {
+        return sms.getDashboardRows();
+    }
+
+    @Override
+    protected Pair keyOf(DashboardRow row) {
+        return new Pair(row.getStudent(), row.getModule());
+    }
+
+    @Override
+    protected Object getValue(DashboardRow row, int column) {
+        switch (column) {
+            case 0:
+                return row.getStudent().getName();
+            case 1:
+                return row.getModule().getName();
+            case 2:
+                return row.getGradeValue();
+            case 3:
+                return row.getStatus();
+            default:
+                return row.isEnrolled() ? "Yes" : "No";
+        }
+    }
+
+    // Any text of the row's student or module, or the grade, status and enrolled columns
+    @Override
+    protected boolean matches(DashboardRow row, SearchMatches matches) {
+        if (matches.matches(row.getStudent()) || matches.matches(row.getModule())) {
+            return true;
+        }
+        for (int column = 2; column < getColumnCount(); column++) {
+            if (matches.matchesValue(getValue(row, column))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void apply(DataChange change) {
+        Student student = change.getStudent();
+        Module module = change.getModule();
+        switch (change.getType()) {
+            case ENROLLED:
+            case UNENROLLED:
+            case GRADE_ADDED:
+            case GRADE_REMOVED:
+            case GRADE_UPDATED:
+                updatePair(student, module);
+                break;
+            case STUDENT_UPDATED:
+                // The names are read from the rows, only the rows of this student change
+                for (Module enrolled : sms.getEnrolledModules(student)) {
+                    updatePair(student, enrolled);
+                }
+                sms.getGradesForStudent(student).forEach(grade -> updatePair(student, grade.getModule()));
+                break;
+            case MODULE_UPDATED:
+                for (Student enrolled : sms.getEnrolledStudents(module)) {
+                    updatePair(enrolled, module);
+                }
+                sms.getGradesForModule(module).forEach(grade -> updatePair(grade.getStudent(), module));
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Rebuilds the row of one pair from its record, which may add or remove it
+    private void updatePair(Student student, Module module) {
+        EnrollmentRecord record = sms.getEnrollment(student, module);
+        boolean enrolled = record != null && record.isEnrolled() && sms.containsModule(module);
+        Grade grade = record == null ? null : record.getGrade();
+        if (enrolled || grade != null) {
+            put(new DashboardRow(student, module, grade, enrolled));
+        } else {
+            remove(new Pair(student, module));
+        }
+    }
+}
+
+// Grade statistics and quantiles of each module, from the running statistics and distributions of
+// StudentManagementSystem. Those of the modules touched by a notification are read once, after all
+// its changes.
+class ModuleStatsTableModel extends LiveTableModel<Module, ModuleStatsTableModel.Row> {
+    private static final long serialVersionUID = 1L;
+
+    static final class Row {
+        private final Module module;
+        private final GradeSummary stats;
+        private final GradeDistribution distribution;
+
+        Row(Module module, GradeSummary stats, GradeDistribution distribution) {
+            this.module = module;
+            this.stats = stats;
+            this.distribution = distribution;
+        }
+
+        public Module getModule() {
+            return module;
+        }
+
+        public GradeSummary getStats() {
+            return stats;
+        }
+
+        public GradeDistribution getDistribution() {
+            return distribution;
+        }
+    }
+
+    private final Set<Module> changedModules = new HashSet<>();
+
+    public ModuleStatsTableModel(StudentManagementSystem sms) {
+        super(sms, "Module ID", "Name", "Grades", "Mean", "Min", "Max", "Pass %", "P10", "Median",
+                "P90");
+    }
+
+    @Override
+    protected Collection<Row> currentRows() {
+        List<Row> rows = new ArrayList<>();
+        Map<Module, GradeDistribution> distributions = sms.getAllModuleDistributions();
+        sms.getAllModuleStats().forEach((module, stats) -> rows.add(new Row(module, stats,
+                distributions.getOrDefault(module, new GradeDistribution()))));
+        return rows;
+    }
+
+    @Override
+    protected Module keyOf(Row row) {
+        return row.getModule();
+    }
+
+    @Override
+    protected Object getValue(Row row, int column) {
+        GradeSummary stats = row.getStats();
+        switch (column) {
+            case 0:
+                return row.getModule().getId();
+            case 1:
+                return row.getModule().getName();
+            case 2:
+                return stats.getCount();
+            case 3:
+                return round(stats.getMean());
+            case 4:
+                return round(stats.getMin());
+            case 5:
+                return round(stats.getMax());
+            case 6:
+                return round(100 * stats.getPassRate());
+            case 7:
+                return quantile(row.getDistribution(), 0.1);
+            case 8:
+                return quantile(row.getDistribution(), 0.5);
+            default:
+                return quantile(row.getDistribution(), 0.9);
+        }
+    }
+
+    // Two decimals, empty when there are no grades
+    private static Double round(double value) {
+        return Double.isNaN(value) ? null : Math.round(value * 100) / 100.0;
+    }
+
+    // From the module's quantile sketch, within QuantileSketch.ALPHA of the exact value
+    private static Double quantile(GradeDistribution distribution, double q) {
+        return round(distribution.getQuantile(q));
+    }
+
+    @Override
+    protected void apply(DataChange change) {
+        switch (change.getType()) {
+            case MODULE_REMOVED:
+                changedModules.remove(change.getModule());
+                remove(change.getModule());
+                break;
+            case MODULE_ADDED:
+            case MODULE_UPDATED:
+            case GRADE_ADDED:
+            case GRADE_REMOVED:
+            case GRADE_UPDATED:
+                changedModules.add(change.getModule());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    protected void changesApplied() {
+        if (changedModules.isEmpty()) {
+            return;
+        }
+        for (Module module : changedModules) {
+            if (sms.containsModule(module)) {
+                put(new Row(module, sms.getModuleStats(module), sms.getModuleDistribution(module)));
+            }
+        }
+        changedModules.clear();
+    }
+
+    @Override
+    protected void reload() {
+        changedModules.clear();
+        super.reload();
+    }
+}
@@ -0,0 +1,821 @@
+/*
+ * Student Management System App
+ * Name: Guilherme Duarte da Silva
+ * ID: 25662
+ *
+ * Description: This class contains the immutable versions of the StudentManagementSystem
+ *              data. Every change publishes a new version that shares everything it did
+ *              not change with the previous one, so reports can read a consistent version
+ *              for as long as they need without holding up edits.
+ *
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Immutable map from non-negative int keys to values, a 32-way trie where put and remove copy only the
+// path to the changed key and share the rest. Iteration is in ascending key order.
+final class PersistentIntMap<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentIntMap<Object> EMPTY = new PersistentIntMap<>(null, 0, 0);
+
+    interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    // Returns false to stop the iteration
+    interface EntryVisitor<V> {
+        boolean visit(int key, V value);
+    }
+
+    // Bit i of the bitmap is set when slot i is present, the children hold the present slots in order.
+    // At level 0 the children are the values.
+    private static final class Node {
+        final int bitmap;
+        final Object[] children;
+
+        Node(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+    }
+
+    private final Node root;
+    private final int shift;
+    private final int size;
+
+    private PersistentIntMap(Node root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (root == null || !fits(key, shift)) {
+            return null;
+        }
+        Node node = root;
+        for (int level = shift;; level -= BITS) {
+            int bit = 1 << ((key >>> level) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object child = node.children[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (level == 0) {
+                return (V) child;
+            }
+            node = (Node) child;
+        }
+    }
+
+    public V getOrDefault(int key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public PersistentIntMap<V> put(int key, V value) {
+        if (key < 0 || value == null) {
+            throw new IllegalArgumentException("Keys must not be negative and values must not be null");
+        }
+        Node newRoot = root;
+        int newShift = root == null ? 0 : shift;
+        while (!fits(key, newShift)) {
+            // Grow upwards, the old trie becomes slot 0 of the new root
+            if (newRoot != null) {
+                newRoot = new Node(1, new Object[] { newRoot });
+            }
+            newShift += BITS;
+        }
+        boolean[] added = new boolean[1];
+        Node result = put(newRoot, newShift, key, value, added);
+        if (result == newRoot) {
+            return this;
+        }
+        return new PersistentIntMap<>(result, newShift, added[0] ? size + 1 : size);
+    }
+
+    private static Node put(Node node, int level, int key, Object value, boolean[] added) {
+        int bit = 1 << ((key >>> level) & MASK);
+        int bitmap = node == null ? 0 : node.bitmap;
+        int index = Integer.bitCount(bitmap & (bit - 1));
+
+        if ((bitmap & bit) != 0) {
+            Object old = node.children[index];
+            Object child = level == 0 ? value : put((Node) old, level - BITS, key, value, added);
+            if (child == old) {
+                return node;
+            }
+            Object[] children = node.children.clone();
+            children[index] = child;
+            return new Node(bitmap, children);
+        }
+
+        Object child;
+        if (level == 0) {
+            child = value;
+            added[0] = true;
+        } else {
+            child = put(null, level - BITS, key, value, added);
+        }
+        int length = node == null ? 0 : node.children.length;
+        Object[] children = new Object[length + 1];
+        if (node != null) {
+            System.arraycopy(node.children, 0, children, 0, index);
+            System.arraycopy(node.children, index, children, index + 1, length - index);
+        }
+        children[index] = child;
+        return new Node(bitmap | bit, children);
+    }
+
+    public PersistentIntMap<V> remove(int key) {
+        if (root == null || !fits(key, shift)) {
+            return this;
+        }
+        Node result = remove(root, shift, key);
+        if (result == root) {
+            return this;
+        }
+        return result == null ? empty() : new PersistentIntMap<>(result, shift, size - 1);
+    }
+
+    private static Node remove(Node node, int level, int key) {
+        int bit = 1 << ((key >>> level) & MASK);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if (level > 0) {
+            Node old = (Node) node.children[index];
+            Node child = remove(old, level - BITS, key);
+            if (child == old) {
+                return node;
+            }
+            if (child != null) {
+                Object[] children = node.children.clone();
+                children[index] = child;
+                return new Node(node.bitmap, children);
+            }
+        }
+
+        if (node.bitmap == bit) {
+            return null;
+        }
+        Object[] children = new Object[node.children.length - 1];
+        System.arraycopy(node.children, 0, children, 0, index);
+        System.arraycopy(node.children, index + 1, children, index, children.length - index);
+        return new Node(node.bitmap & ~bit, children);
+    }
+
+    public void forEach(Consumer<? super V> action) {
+        forEachEntry((key, value) -> action.accept(value));
+    }
+
+    public void forEachEntry(EntryConsumer<? super V> action) {
+        if (root != null) {
+            forEachEntry(root, shift, 0, action);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void forEachEntry(Node node, int level, int prefix, EntryConsumer<? super V> action) {
+        int bitmap = node.bitmap;
+        for (int i = 0; bitmap != 0; i++) {
+            int slot = Integer.numberOfTrailingZeros(bitmap);
+            bitmap &= bitmap - 1;
+            int key = prefix | (slot << level);
+            if (level == 0) {
+                action.accept(key, (V) node.children[i]);
+            } else {
+                forEachEntry((Node) node.children[i], level - BITS, key, action);
+            }
+        }
+    }
+
+    // Visits the entries with a key of at least fromKey in ascending order, until the visitor returns false.
+    // Only the path to fromKey is walked to find the first entry. Returns false when stopped early.
+    public boolean visitFrom(int fromKey, EntryVisitor<? super V> visitor) {
+        if (root == null || !fits(Math.max(fromKey, 0), shift)) {
+            return true;
+        }
+        return visitFrom(root, shift, 0, Math.max(fromKey, 0), true, visitor);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> boolean visitFrom(Node node, int level, int prefix, int fromKey, boolean onPath,
+            EntryVisitor<? super V> visitor) {
+        int firstSlot = onPath ? (fromKey >>> level) & MASK : 0;
+        int bitmap = node.bitmap & (-1 << firstSlot);
+        int i = Integer.bitCount(node.bitmap & ~(-1 << firstSlot));
+        for (; bitmap != 0; i++) {
+            int slot = Integer.numberOfTrailingZeros(bitmap);
+            bitmap &= bitmap - 1;
+            int key = prefix | (slot << level);
+            boolean more = level == 0
+                    ? visitor.visit(key, (V) node.children[i])
+                    : visitFrom((Node) node.children[i], level - BITS, key, fromKey, onPath && slot == firstSlot,
+                            visitor);
+            if (!more) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean fits(int key, int shift) {
+        return key >= 0 && ((long) key >>> (shift + BITS)) == 0;
+    }
+
+    // Builds a map in one pass, without the copying of repeated puts
+    static final class Builder<V> {
+        private int[] keys = new int[16];
+        private Object[] values = new Object[16];
+        private int count;
+        private boolean sorted = true;
+
+        public Builder<V> put(int key, V value) {
+            if (key < 0 || value == null) {
+                throw new IllegalArgumentException("Keys must not be negative and values must not be null");
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            if (count > 0 && key <= keys[count - 1]) {
+                sorted = false;
+            }
+            keys[count] = key;
+            values[count] = value;
+            count++;
+            return this;
+        }
+
+        public PersistentIntMap<V> build() {
+            if (count == 0) {
+                return empty();
+            }
+            if (!sorted) {
+                sort();
+            }
+            int shift = 0;
+            while (!fits(keys[count - 1], shift)) {
+                shift += BITS;
+            }
+            return new PersistentIntMap<>(build(0, count, shift), shift, count);
+        }
+
+        // Keys share the same slots above the level within from..to, so each slot is one contiguous run
+        private Node build(int from, int to, int level) {
+            int bitmap = 0;
+            int slots = 0;
+            for (int i = from; i < to; i++) {
+                int bit = 1 << ((keys[i] >>> level) & MASK);
+                if ((bitmap & bit) == 0) {
+                    bitmap |= bit;
+                    slots++;
+                }
+            }
+            Object[] children = new Object[slots];
+            int c = 0;
+            for (int i = from; i < to;) {
+                int slot = (keys[i] >>> level) & MASK;
+                int j = i + 1;
+                while (j < to && ((keys[j] >>> level) & MASK) == slot) {
+                    j++;
+                }
+                children[c++] = level == 0 ? values[j - 1] : build(i, j, level - BITS);
+                i = j;
+            }
+            return new Node(bitmap, children);
+        }
+
+        // Sorts by key, the last value put for a key wins
+        private void sort() {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> keys[a] != keys[b] ? Integer.compare(keys[a], keys[b]) : Integer.compare(a, b));
+            int[] sortedKeys = new int[count];
+            Object[] sortedValues = new Object[count];
+            int n = 0;
+            for (Integer i : order) {
+                if (n > 0 && sortedKeys[n - 1] == keys[i]) {
+                    n--;
+                }
+                sortedKeys[n] = keys[i];
+                sortedValues[n] = values[i];
+                n++;
+            }
+            keys = sortedKeys;
+            values = sortedValues;
+            count = n;
+            sorted = true;
+        }
+    }
+}
+
+// Student as it was in one version
+final class StudentRecord {
+    private final int key;
+    private final String id;
+    private final String name;
+    private final String email;
+
+    StudentRecord(Student student) {
+        this.key = student.getKey();
+        this.id = student.getId();
+        this.name = student.getName();
+        this.email = student.getEmail();
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
+
+// Module as it was in one version
+final class ModuleRecord {
+    private final int key;
+    private final String id;
+    private final String name;
+    private final String teacher;
+    private final String semester;
+
+    ModuleRecord(Module module) {
+        this.key = module.getKey();
+        this.id = module.getId();
+        this.name = module.getName();
+        this.teacher = module.getTeacher();
+        this.semester = module.getSemester();
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTeacher() {
+        return teacher;
+    }
+
+    public String getSemester() {
+        return semester;
+    }
+}
+
+// Grade as it was in one version, the student and module are referred to by key. The key of the grade is
+// its sequence number, so a student's grades are in the order they were added.
+final class GradeRecord {
+    private final int key;
+    private final int studentKey;
+    private final int moduleKey;
+    private final double grade;
+
+    GradeRecord(int key, int studentKey, int moduleKey, double grade) {
+        this.key = key;
+        this.studentKey = studentKey;
+        this.moduleKey = moduleKey;
+        this.grade = grade;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public int getStudentKey() {
+        return studentKey;
+    }
+
+    public int getModuleKey() {
+        return moduleKey;
+    }
+
+    public double getGrade() {
+        return grade;
+    }
+}
+
+// Grades of one student in one version, as columns sorted by grade key. Students have few grades, so a
+// change copies the columns instead of keeping a GradeRecord and a trie path for every grade, and the
+// records are made as the grades are read.
+final class GradeList {
+    static final GradeList EMPTY = new GradeList(new int[0], new int[0], new double[0]);
+
+    private final int[] keys;
+    private final int[] moduleKeys;
+    private final double[] grades;
+
+    private GradeList(int[] keys, int[] moduleKeys, double[] grades) {
+        this.keys = keys;
+        this.moduleKeys = moduleKeys;
+        this.grades = grades;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    // Adds the grade, or replaces the one with the same key
+    GradeList put(int key, int moduleKey, double grade) {
+        int index = Arrays.binarySearch(keys, key);
+        if (index >= 0) {
+            int[] newModuleKeys = moduleKeys.clone();
+            double[] newGrades = grades.clone();
+            newModuleKeys[index] = moduleKey;
+            newGrades[index] = grade;
+            return new GradeList(keys, newModuleKeys, newGrades);
+        }
+        index = -index - 1;
+        int[] newKeys = new int[keys.length + 1];
+        int[] newModuleKeys = new int[keys.length + 1];
+        double[] newGrades = new double[keys.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, index);
+        System.arraycopy(moduleKeys, 0, newModuleKeys, 0, index);
+        System.arraycopy(grades, 0, newGrades, 0, index);
+        newKeys[index] = key;
+        newModuleKeys[index] = moduleKey;
+        newGrades[index] = grade;
+        System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+        System.arraycopy(moduleKeys, index, newModuleKeys, index + 1, keys.length - index);
+        System.arraycopy(grades, index, newGrades, index + 1, keys.length - index);
+        return new GradeList(newKeys, newModuleKeys, newGrades);
+    }
+
+    GradeList remove(int key) {
+        int index = Arrays.binarySearch(keys, key);
+        if (index < 0) {
+            return this;
+        }
+        if (keys.length == 1) {
+            return EMPTY;
+        }
+        int[] newKeys = new int[keys.length - 1];
+        int[] newModuleKeys = new int[keys.length - 1];
+        double[] newGrades = new double[keys.length - 1];
+        System.arraycopy(keys, 0, newKeys, 0, index);
+        System.arraycopy(moduleKeys, 0, newModuleKeys, 0, index);
+        System.arraycopy(grades, 0, newGrades, 0, index);
+        System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+        System.arraycopy(moduleKeys, index + 1, newModuleKeys, index, keys.length - index - 1);
+        System.arraycopy(grades, index + 1, newGrades, index, keys.length - index - 1);
+        return new GradeList(newKeys, newModuleKeys, newGrades);
+    }
+
+    void forEach(int studentKey, Consumer<GradeRecord> action) {
+        for (int i = 0; i < keys.length; i++) {
+            action.accept(new GradeRecord(keys[i], studentKey, moduleKeys[i], grades[i]));
+        }
+    }
+
+    // Visits from a key in ascending key order, until the visitor returns false
+    boolean visitFrom(int studentKey, int fromKey, PersistentIntMap.EntryVisitor<GradeRecord> visitor) {
+        int index = Arrays.binarySearch(keys, fromKey);
+        for (int i = index >= 0 ? index : -index - 1; i < keys.length; i++) {
+            if (!visitor.visit(keys[i], new GradeRecord(keys[i], studentKey, moduleKeys[i], grades[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // For a version built from scratch, the grades must come in ascending key order
+    static final class Builder {
+        private int[] keys = new int[8];
+        private int[] moduleKeys = new int[8];
+        private double[] grades = new double[8];
+        private int size;
+
+        void add(int key, int moduleKey, double grade) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                moduleKeys = Arrays.copyOf(moduleKeys, size * 2);
+                grades = Arrays.copyOf(grades, size * 2);
+            }
+            keys[size] = key;
+            moduleKeys[size] = moduleKey;
+            grades[size++] = grade;
+        }
+
+        GradeList build() {
+            return size == 0 ? EMPTY : new GradeList(Arrays.copyOf(keys, size), Arrays.copyOf(moduleKeys, size),
+                    Arrays.copyOf(grades, size));
+        }
+    }
+}
+
+// One consistent, immutable version of the data. Grades and enrollments are kept per student and
+// refer to modules by key, so renaming a module or student only replaces its own record.
+final class StoreVersion {
+    interface DashboardRowVisitor {
+        void visit(StudentRecord student, ModuleRecord module, GradeRecord grade, boolean enrolled);
+    }
+
+    static final StoreVersion EMPTY = new StoreVersion(0, PersistentIntMap.empty(), PersistentIntMap.empty(),
+            PersistentIntMap.empty(), PersistentIntMap.empty(), 0, 0);
+
+    private final long version;
+    private final PersistentIntMap<StudentRecord> students;
+    private final PersistentIntMap<ModuleRecord> modules;
+    private final PersistentIntMap<GradeList> gradesByStudent;
+    private final PersistentIntMap<PersistentIntMap<Boolean>> enrollmentsByStudent;
+    private final int gradeCount;
+    private final int enrollmentCount;
+
+    StoreVersion(long version, PersistentIntMap<StudentRecord> students, PersistentIntMap<ModuleRecord> modules,
+            PersistentIntMap<GradeList> gradesByStudent,
+            PersistentIntMap<PersistentIntMap<Boolean>> enrollmentsByStudent, int gradeCount,
+            int enrollmentCount) {
+        this.version = version;
+        this.students = students;
+        this.modules = modules;
+        this.gradesByStudent = gradesByStudent;
+        this.enrollmentsByStudent = enrollmentsByStudent;
+        this.gradeCount = gradeCount;
+        this.enrollmentCount = enrollmentCount;
+    }
+
+    // Goes up by one with every batch of changes
+    public long getVersion() {
+        return version;
+    }
+
+    public int getStudentCount() {
+        return students.size();
+    }
+
+    public int getModuleCount() {
+        return modules.size();
+    }
+
+    public int getGradeCount() {
+        return gradeCount;
+    }
+
+    public int getEnrollmentCount() {
+        return enrollmentCount;
+    }
+
+    public StudentRecord getStudent(int key) {
+        return students.get(key);
+    }
+
+    public ModuleRecord getModule(int key) {
+        return modules.get(key);
+    }
+
+    public void forEachStudent(Consumer<StudentRecord> action) {
+        students.forEach(action);
+    }
+
+    public void forEachModule(Consumer<ModuleRecord> action) {
+        modules.forEach(action);
+    }
+
+    // Grouped by student, each student's grades in the order they were added
+    public void forEachGrade(Consumer<GradeRecord> action) {
+        gradesByStudent.forEachEntry((studentKey, grades) -> grades.forEach(studentKey, action));
+    }
+
+    public void forEachGradeOfStudent(int studentKey, Consumer<GradeRecord> action) {
+        gradesByStudent.getOrDefault(studentKey, GradeList.EMPTY).forEach(studentKey, action);
+    }
+
+    public boolean isEnrolled(int studentKey, int moduleKey) {
+        return enrollmentsByStudent.getOrDefault(studentKey, PersistentIntMap.empty()).get(moduleKey) != null;
+    }
+
+    // Modules of each enrollment as they were in this version
+    public void forEachEnrollmentOfStudent(int studentKey, Consumer<ModuleRecord> action) {
+        enrollmentsByStudent.getOrDefault(studentKey, PersistentIntMap.empty())
+                .forEachEntry((moduleKey, enrolled) -> action.accept(modules.get(moduleKey)));
+    }
+
+    // Paged access: each visits from a key in ascending key order, until the visitor returns false
+    public boolean visitStudents(int fromKey, PersistentIntMap.EntryVisitor<StudentRecord> visitor) {
+        return students.visitFrom(fromKey, visitor);
+    }
+
+    public boolean visitModules(int fromKey, PersistentIntMap.EntryVisitor<ModuleRecord> visitor) {
+        return modules.visitFrom(fromKey, visitor);
+    }
+
+    // Grades by student key, then by grade key within the student
+    public boolean visitGrades(int fromStudentKey, int fromGradeKey,
+            PersistentIntMap.EntryVisitor<GradeRecord> visitor) {
+        return gradesByStudent.visitFrom(fromStudentKey, (studentKey, grades) -> grades.visitFrom(studentKey,
+                studentKey == fromStudentKey ? fromGradeKey : 0, visitor));
+    }
+
+    // Enrollments by student key, then by module key, the visitor gets the student key and the module
+    public boolean visitEnrollments(int fromStudentKey, int fromModuleKey,
+            PersistentIntMap.EntryVisitor<ModuleRecord> visitor) {
+        return enrollmentsByStudent.visitFrom(fromStudentKey, (studentKey, enrolled) -> enrolled.visitFrom(
+                studentKey == fromStudentKey ? fromModuleKey : 0,
+                (moduleKey, unused) -> visitor.visit(studentKey, modules.get(moduleKey))));
+    }
+
+    // Same rows as StudentManagementSystem.getDashboardRows, first grade of each pair only
+    public void forEachDashboardRow(DashboardRowVisitor visitor) {
+        students.forEach(student -> forEachDashboardRowOfStudent(student, visitor));
+    }
+
+    public void forEachDashboardRowOfStudent(StudentRecord student, DashboardRowVisitor visitor) {
+        List<GradeRecord> grades = new ArrayList<>();
+        gradesByStudent.getOrDefault(student.getKey(), GradeList.EMPTY).forEach(student.getKey(), grades::add);
+        PersistentIntMap<Boolean> enrolled = enrollmentsByStudent.getOrDefault(student.getKey(),
+                PersistentIntMap.empty());
+        Map<Integer, GradeRecord> firstGrades = new HashMap<>();
+        grades.forEach(grade -> firstGrades.putIfAbsent(grade.getModuleKey(), grade));
+
+        enrolled.forEachEntry((moduleKey, unused) -> visitor.visit(student, modules.get(moduleKey),
+                firstGrades.get(moduleKey), true));
+        grades.forEach(grade -> {
+            int moduleKey = grade.getModuleKey();
+            if (enrolled.get(moduleKey) == null && firstGrades.get(moduleKey) == grade) {
+                visitor.visit(student, modules.get(moduleKey), grade, false);
+            }
+        });
+    }
+
+    // Applies changes to this version to make the next one, only the changed paths are copied
+    StoreVersion apply(List<DataChange> changes) {
+        PersistentIntMap<StudentRecord> newStudents = students;
+        PersistentIntMap<ModuleRecord> newModules = modules;
+        PersistentIntMap<GradeList> newGrades = gradesByStudent;
+        PersistentIntMap<PersistentIntMap<Boolean>> newEnrollments = enrollmentsByStudent;
+        int newGradeCount = gradeCount;
+        int newEnrollmentCount = enrollmentCount;
+
+        for (DataChange change : changes) {
+            Student student = change.getStudent();
+            Module module = change.getModule();
+            Grade grade = change.getGrade();
+            switch (change.getType()) {
+                case STUDENT_ADDED:
+                case STUDENT_UPDATED:
+                    newStudents = newStudents.put(student.getKey(), new StudentRecord(student));
+                    break;
+                case STUDENT_REMOVED:
+                    // Its grades and enrollments follow as cascaded changes
+                    newStudents = newStudents.remove(student.getKey());
+                    break;
+                case MODULE_ADDED:
+                case MODULE_UPDATED:
+                    newModules = newModules.put(module.getKey(), new ModuleRecord(module));
+                    break;
+                case MODULE_REMOVED:
+                    newModules = newModules.remove(module.getKey());
+                    break;
+                case ENROLLED: {
+                    PersistentIntMap<Boolean> enrolled = newEnrollments.getOrDefault(student.getKey(),
+                            PersistentIntMap.empty());
+                    PersistentIntMap<Boolean> changed = enrolled.put(module.getKey(), Boolean.TRUE);
+                    newEnrollmentCount += changed.size() - enrolled.size();
+                    newEnrollments = newEnrollments.put(student.getKey(), changed);
+                    break;
+                }
+                case UNENROLLED: {
+                    PersistentIntMap<Boolean> enrolled = newEnrollments.getOrDefault(student.getKey(),
+                            PersistentIntMap.empty());
+                    PersistentIntMap<Boolean> changed = enrolled.remove(module.getKey());
+                    newEnrollmentCount += changed.size() - enrolled.size();
+                    newEnrollments = changed.isEmpty() ? newEnrollments.remove(student.getKey())
+                            : newEnrollments.put(student.getKey(), changed);
+                    break;
+                }
+                case GRADE_ADDED:
+                case GRADE_UPDATED: {
+                    GradeList grades = newGrades.getOrDefault(student.getKey(), GradeList.EMPTY);
+                    GradeList changed = grades.put(grade.getSequence(), grade.getModule().getKey(),
+                            grade.getGrade());
+                    newGradeCount += changed.size() - grades.size();
+                    newGrades = newGrades.put(student.getKey(), changed);
+                    break;
+                }
+                case GRADE_REMOVED: {
+                    GradeList grades = newGrades.getOrDefault(student.getKey(), GradeList.EMPTY);
+                    GradeList changed = grades.remove(grade.getSequence());
+                    newGradeCount += changed.size() - grades.size();
+                    newGrades = changed.isEmpty() ? newGrades.remove(student.getKey())
+                            : newGrades.put(student.getKey(), changed);
+                    break;
+                }
+                case RELOADED:
+                    // Handled by StoreVersionTracker, which rebuilds the whole version
+                    break;
+            }
+        }
+        return new StoreVersion(version + 1, newStudents, newModules, newGrades, newEnrollments, newGradeCount,
+                newEnrollmentCount);
+    }
+
+    // Builds a version from scratch, called with the read or write lock of sms held
+    static StoreVersion build(StudentManagementSystem sms, long version) {
+        PersistentIntMap.Builder<StudentRecord> students = new PersistentIntMap.Builder<>();
+        PersistentIntMap.Builder<GradeList> grades = new PersistentIntMap.Builder<>();
+        PersistentIntMap.Builder<PersistentIntMap<Boolean>> enrollments = new PersistentIntMap.Builder<>();
+        int gradeCount = 0;
+        int enrollmentCount = 0;
+
+        for (Student student : sms.getStudents()) {
+            students.put(student.getKey(), new StudentRecord(student));
+
+            List<Grade> studentGrades = sms.getGradesForStudent(student);
+            if (!studentGrades.isEmpty()) {
+                GradeList.Builder builder = new GradeList.Builder();
+                for (Grade grade : studentGrades) {
+                    builder.add(grade.getSequence(), grade.getModule().getKey(), grade.getGrade());
+                }
+                grades.put(student.getKey(), builder.build());
+                gradeCount += studentGrades.size();
+            }
+
+            Set<Module> enrolledModules = sms.getEnrolledModules(student);
+            if (!enrolledModules.isEmpty()) {
+                PersistentIntMap.Builder<Boolean> builder = new PersistentIntMap.Builder<>();
+                for (Module module : enrolledModules) {
+                    builder.put(module.getKey(), Boolean.TRUE);
+                }
+                enrollments.put(student.getKey(), builder.build());
+                enrollmentCount += enrolledModules.size();
+            }
+        }
+
+        PersistentIntMap.Builder<ModuleRecord> modules = new PersistentIntMap.Builder<>();
+        for (Module module : sms.getModules()) {
+            modules.put(module.getKey(), new ModuleRecord(module));
+        }
+        return new StoreVersion(version, students.build(), modules.build(), grades.build(), enrollments.build(),
+                gradeCount, enrollmentCount);
+    }
+}
+
+// Publishes a new StoreVersion after every batch of changes. The StudentManagementSystem calls it with
+// its write lock held, so it is the only writer, and readers only ever see whole versions.
+class StoreVersionTracker implements DataChangeListener {
+    private final StudentManagementSystem sms;
+    private final AtomicReference<StoreVersion> current = new AtomicReference<>(StoreVersion.EMPTY);
+
+    public StoreVersionTracker(StudentManagementSystem sms) {
+        this.sms = sms;
+    }
+
+    public StoreVersion getCurrent() {
+        return current.get();
+    }
+
+    @Override
+    public void dataChanged(List<DataChange> changes) {
+        StoreVersion version = current.get();
+        boolean reloaded = changes.stream().anyMatch(change -> change.getType() == DataChange.Type.RELOADED);
+        if (reloaded) {
+            current.set(StoreVersion.build(sms, version.getVersion() + 1));
+        } else {
+            current.set(version.apply(changes));
+        }
+    }
+}